@@ -16,13 +16,19 @@
 
 package com.gmail.walles.johan.exactype;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
 import android.content.SharedPreferences;
 import android.content.res.Configuration;
+import android.graphics.Bitmap;
 import android.inputmethodservice.InputMethodService;
+import android.os.Looper;
 import android.os.Vibrator;
 import android.preference.PreferenceManager;
 import android.text.InputType;
 import android.text.TextUtils;
+import android.util.DisplayMetrics;
+import android.view.Display;
 import android.view.Gravity;
 import android.view.View;
 import android.view.inputmethod.EditorInfo;
@@ -31,7 +37,12 @@ import android.widget.PopupWindow;
 
 import com.gmail.walles.johan.exactype.activities.SettingsActivity;
 import com.gmail.walles.johan.exactype.activities.StatsTracker;
+import com.gmail.walles.johan.exactype.util.BitmapPool;
+import com.gmail.walles.johan.exactype.util.CacheManager;
+import com.gmail.walles.johan.exactype.util.DeviceProfile;
+import com.gmail.walles.johan.exactype.util.FrameTimeTracker;
 import com.gmail.walles.johan.exactype.util.LoggingUtils;
+import com.gmail.walles.johan.exactype.util.PerfEvent;
 import com.gmail.walles.johan.exactype.util.Timer;
 import com.gmail.walles.johan.exactype.util.VibrationUtils;
 
@@ -39,14 +50,15 @@ import java.util.HashMap;
 import java.util.Map;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import timber.log.Timber;
 
 public class Exactype
     extends InputMethodService
     implements SharedPreferences.OnSharedPreferenceChangeListener
 {
-    private static final String PERF_EVENT = "Perf";
     private int vibrate_duration_ms = SettingsActivity.DEFAULT_VIBRATE_DURATION_MS;
+    private boolean reducedColorDepth = SettingsActivity.DEFAULT_REDUCED_COLOR_DEPTH;
 
     /**
      * While doing word-by-word deletion, how far back should we look when attempting to find the
@@ -75,10 +87,15 @@ public class Exactype
 
     private final Map<Character, String> popupKeysForKey;
 
+    // Created on first use, most sessions never long press
+    @Nullable
     private PopupKeyboardView popupKeyboardView;
+    @Nullable
     private PopupWindow popupKeyboardWindow;
 
-    // Protected for testing purposes, should otherwise be private
+    // Created on first use, most sessions never long press.
+    // Protected for testing purposes, should otherwise be private.
+    @Nullable
     protected FeedbackWindow feedbackWindow;
 
     private final ExactypeMode mode;
@@ -93,9 +110,62 @@ public class Exactype
 
     private ExactypeExecutor inputConnectionExecutor;
 
-    // Can be null during unit testing
+    // Can be null during unit testing, and before startup has finished. Used from the input
+    // connection executor thread.
+    @Nullable
+    private volatile StatsTracker statsTracker;
+
+    /**
+     * Whether the current input field is private, see {@link #isPrivateInput(EditorInfo)}. Kept
+     * here as well, since input can start before our stats tracker does.
+     */
+    private boolean privateInput;
+
+    /**
+     * Times startup phases until the first keyboard frame has been drawn, null after that.
+     */
     @Nullable
-    private StatsTracker statsTracker;
+    private Timer startupTimer;
+
+    /**
+     * True when {@link #finishStartup()} has been run.
+     */
+    private boolean startupFinished;
+
+    private final FrameTimeTracker frameTimeTracker = new FrameTimeTracker();
+
+    /**
+     * Used until we know how much memory we have, see {@link #onCreate()}.
+     */
+    private static final long DEFAULT_CACHE_BUDGET_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * Use at most this part of our heap limit for caches.
+     */
+    private static final int CACHE_BUDGET_HEAP_FRACTION = 8;
+
+    /**
+     * In low-end mode, caches get this part of their normal budget.
+     */
+    private static final int LOW_END_CACHE_BUDGET_DIVISOR = 4;
+
+    /**
+     * In low-end mode, let stats accumulate for longer between writes.
+     */
+    private static final long LOW_END_STATS_FLUSH_DELAY_MS = 15000;
+
+    private long cacheBudgetBytes = DEFAULT_CACHE_BUDGET_BYTES;
+    private final CacheManager cacheManager = new CacheManager(DEFAULT_CACHE_BUDGET_BYTES);
+    private final BitmapPool bitmapPool = new BitmapPool(cacheManager);
+
+    /**
+     * Outlives our input views, which get re-created on every configuration change.
+     */
+    private final KeyboardCaches keyboardCaches = new KeyboardCaches(cacheManager, bitmapPool);
+
+    // Null until onCreate()
+    @Nullable
+    private DeviceProfile deviceProfile;
 
     // We override this method only to add the @Nullable annotation and get the corresponding
     // warnings
@@ -107,19 +177,127 @@ public class Exactype
 
     @Override
     public void onCreate() {
+        startupTimer = new Timer();
+
         LoggingUtils.setUpLogging();
 
         super.onCreate();
 
+        inputConnectionExecutor = new ExactypeExecutor();
+
+        ActivityManager activityManager = (ActivityManager)getSystemService(ACTIVITY_SERVICE);
+        if (activityManager != null) {
+            long heapLimitBytes = activityManager.getMemoryClass() * 1024L * 1024L;
+            cacheBudgetBytes = heapLimitBytes / CACHE_BUDGET_HEAP_FRACTION;
+        }
+
+        deviceProfile = new DeviceProfile(this, isLowEnd -> {
+            LoggingUtils.logPerf(PerfEvent.LOW_END_MODE, isLowEnd ? 1 : 0);
+            applyDeviceProfile();
+        });
+        applyDeviceProfile();
+
+        // Everything not needed for drawing the first keyboard frame is done in finishStartup()
+        startupTimer.addLeg("create input view");
+    }
+
+    /**
+     * Set up things that aren't needed for drawing the keyboard. Called when the main thread
+     * goes idle after the first keyboard frame, or on first touch, whichever happens first.
+     */
+    private void finishStartup() {
+        if (startupFinished) {
+            return;
+        }
+        startupFinished = true;
+
+        Timer timer = new Timer();
+
+        timer.addLeg("read preferences");
         final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
         preferences.registerOnSharedPreferenceChangeListener(this);
         vibrate_duration_ms =
             preferences.getInt(SettingsActivity.VIBRATE_DURATION_MS_KEY,
                 SettingsActivity.DEFAULT_VIBRATE_DURATION_MS);
+        setReducedColorDepth(preferences.getBoolean(SettingsActivity.REDUCED_COLOR_DEPTH_KEY,
+            SettingsActivity.DEFAULT_REDUCED_COLOR_DEPTH));
 
-        inputConnectionExecutor = new ExactypeExecutor();
+        timer.addLeg("look up vibrator");
+        vibrator = (Vibrator)getSystemService(VIBRATOR_SERVICE);
+
+        timer.addLeg("start stats tracker");
+        setStatsTracker(StatsTracker.get(this));
+
+        timer.addLeg("track battery saver");
+        if (deviceProfile != null) {
+            deviceProfile.startListening();
+        }
+        applyDeviceProfile();
 
-        statsTracker = new StatsTracker(this);
+        Timber.i("Startup finished: %s", timer);
+    }
+
+    @Override
+    public void onDestroy() {
+        if (deviceProfile != null) {
+            deviceProfile.close();
+        }
+
+        super.onDestroy();
+    }
+
+    private boolean isLowEnd() {
+        return deviceProfile != null && deviceProfile.isLowEnd();
+    }
+
+    /**
+     * Switch between our normal and our lighter low-end profiles.
+     */
+    private void applyDeviceProfile() {
+        boolean isLowEnd = isLowEnd();
+        Timber.i("Low-end mode: %b", isLowEnd);
+
+        if (isLowEnd) {
+            cacheManager.setBudgetBytes(cacheBudgetBytes / LOW_END_CACHE_BUDGET_DIVISOR);
+            frameTimeTracker.stopMonitoringFrames();
+        } else {
+            cacheManager.setBudgetBytes(cacheBudgetBytes);
+        }
+
+        StatsTracker statsTracker = this.statsTracker;
+        if (statsTracker != null) {
+            statsTracker.setFlushDelayMs(
+                isLowEnd ? LOW_END_STATS_FLUSH_DELAY_MS : StatsTracker.DEFAULT_FLUSH_DELAY_MS);
+        }
+
+        if (isLowEnd && feedbackWindow != null) {
+            feedbackWindow.close();
+        }
+
+        if (view != null) {
+            // Possibly re-render with a different bitmap format
+            view.invalidate();
+        }
+    }
+
+    /**
+     * Called by our {@link ExactypeView} after it has been drawn for the first time.
+     */
+    void onFirstFrameDrawn() {
+        if (startupTimer != null) {
+            LoggingUtils.logPerf(PerfEvent.TIME_TO_FIRST_FRAME, startupTimer.getMs());
+            Timber.i("Time to first keyboard frame: %s", startupTimer);
+            startupTimer = null;
+        }
+
+        if (!startupFinished) {
+            Looper.myQueue().addIdleHandler(() -> {
+                finishStartup();
+
+                // Don't call us again
+                return false;
+            });
+        }
     }
 
     @Override
@@ -128,7 +306,34 @@ public class Exactype
             vibrate_duration_ms =
                 preferences.getInt(SettingsActivity.VIBRATE_DURATION_MS_KEY,
                     SettingsActivity.DEFAULT_VIBRATE_DURATION_MS);
+        } else if (SettingsActivity.REDUCED_COLOR_DEPTH_KEY.equals(key)) {
+            setReducedColorDepth(
+                preferences.getBoolean(SettingsActivity.REDUCED_COLOR_DEPTH_KEY,
+                    SettingsActivity.DEFAULT_REDUCED_COLOR_DEPTH));
+        }
+    }
+
+    private void setReducedColorDepth(boolean reducedColorDepth) {
+        if (this.reducedColorDepth == reducedColorDepth) {
+            return;
+        }
+        this.reducedColorDepth = reducedColorDepth;
+
+        if (view != null) {
+            // Re-render in the new format
+            view.invalidate();
+        }
+    }
+
+    /**
+     * Pixel format for software rendered keyboard bitmaps. The keyboard is opaque, so when
+     * reducing color depth we can drop the alpha channel and go with 16 bits per pixel.
+     */
+    public Bitmap.Config getBitmapConfig() {
+        if (reducedColorDepth || isLowEnd()) {
+            return Bitmap.Config.RGB_565;
         }
+        return Bitmap.Config.ARGB_8888;
     }
 
     public Exactype() {
@@ -148,19 +353,34 @@ public class Exactype
 
     @Override
     public View onCreateInputView() {
-        popupKeyboardView = new PopupKeyboardView(this);
-        popupKeyboardWindow = new PopupWindow(popupKeyboardView);
+        // These are tied to the previous input view, if any. Re-create them on demand.
+        if (feedbackWindow != null) {
+            feedbackWindow.close();
+            feedbackWindow = null;
+        }
+        if (popupKeyboardWindow != null) {
+            popupKeyboardWindow.dismiss();
+            popupKeyboardWindow = null;
+            popupKeyboardView = null;
+        }
 
         view = new ExactypeView(this);
         mode.addModeChangeListener(view);
 
-        feedbackWindow = new FeedbackWindow(this, view);
-
-        vibrator = (Vibrator)getSystemService(VIBRATOR_SERVICE);
+        if (startupTimer != null) {
+            startupTimer.addLeg("draw first frame");
+        }
 
         return view;
     }
 
+    private FeedbackWindow getFeedbackWindow() {
+        if (feedbackWindow == null) {
+            feedbackWindow = new FeedbackWindow(this, view);
+        }
+        return feedbackWindow;
+    }
+
     @Override
     public void onConfigurationChanged(Configuration newConfig) {
         // Make sure we don't leave stray popup windows behind that are impossible to get rid of
@@ -174,6 +394,54 @@ public class Exactype
         super.onConfigurationChanged(newConfig);
     }
 
+    @VisibleForTesting
+    void setStatsTracker(StatsTracker statsTracker) {
+        this.statsTracker = statsTracker;
+
+        // The tracker is shared with any previous instances of us, and we could already be in a
+        // password field. Either way it needs to know where we are.
+        final boolean privateInput = this.privateInput;
+        enqueue(() -> statsTracker.setPrivateInput(privateInput));
+    }
+
+    @Override
+    public void onStartInput(EditorInfo editorInfo, boolean restarting) {
+        super.onStartInput(editorInfo, restarting);
+
+        updatePrivateInput(editorInfo);
+    }
+
+    @VisibleForTesting
+    void updatePrivateInput(EditorInfo editorInfo) {
+        final boolean privateInput = isPrivateInput(editorInfo);
+        this.privateInput = privateInput;
+
+        StatsTracker statsTracker = this.statsTracker;
+        if (statsTracker != null) {
+            enqueue(() -> statsTracker.setPrivateInput(privateInput));
+        }
+    }
+
+    /**
+     * True for password fields, and for fields that have asked us not to learn from what is typed
+     * into them.
+     */
+    private static boolean isPrivateInput(EditorInfo editorInfo) {
+        if ((editorInfo.imeOptions & EditorInfo.IME_FLAG_NO_PERSONALIZED_LEARNING) != 0) {
+            return true;
+        }
+
+        int inputClass = editorInfo.inputType & InputType.TYPE_MASK_CLASS;
+        int variation = editorInfo.inputType & InputType.TYPE_MASK_VARIATION;
+        if (inputClass == InputType.TYPE_CLASS_NUMBER) {
+            return variation == InputType.TYPE_NUMBER_VARIATION_PASSWORD;
+        }
+        return inputClass == InputType.TYPE_CLASS_TEXT
+            && (variation == InputType.TYPE_TEXT_VARIATION_PASSWORD
+                || variation == InputType.TYPE_TEXT_VARIATION_VISIBLE_PASSWORD
+                || variation == InputType.TYPE_TEXT_VARIATION_WEB_PASSWORD);
+    }
+
     @Override
     public void onStartInputView(EditorInfo editorInfo, boolean restarting) {
         if (restarting) {
@@ -190,8 +458,32 @@ public class Exactype
         }
     }
 
+    @Override
+    public void onFinishInput() {
+        super.onFinishInput();
+
+        // Whatever word was being typed, we won't see how it ends
+        StatsTracker statsTracker = this.statsTracker;
+        if (statsTracker != null) {
+            enqueue(statsTracker::discardWord);
+        }
+
+        // Done with this input field, get the stats to disk while we're still around
+        flushStats();
+    }
+
+    private void flushStats() {
+        StatsTracker statsTracker = this.statsTracker;
+        if (statsTracker != null) {
+            statsTracker.requestFlush();
+        }
+    }
+
     public void onLongPress(float x, float y) {
-        feedbackWindow.show(x, y);
+        if (!isLowEnd()) {
+            // Optional, and drawing it every frame is expensive on slow devices
+            getFeedbackWindow().show(x, y);
+        }
 
         mode.register(ExactypeMode.Event.LONG_PRESS);
     }
@@ -201,7 +493,10 @@ public class Exactype
     }
 
     public void onKeyTapped(final char tappedKey) {
-        popupKeyboardWindow.dismiss();
+        if (popupKeyboardWindow != null) {
+            popupKeyboardWindow.dismiss();
+        }
+        final long tapTimeNanos = System.nanoTime();
         enqueue(() -> {
             Timer timer = new Timer();
 
@@ -210,18 +505,19 @@ public class Exactype
                 return;
             }
 
+            StatsTracker statsTracker = Exactype.this.statsTracker;
             if (statsTracker != null) {
-                statsTracker.countCharacter(Character.toString(tappedKey));
+                statsTracker.countCharacter(tappedKey, tapTimeNanos);
             }
             inputConnection.commitText(Character.toString(tappedKey), 1);
-            LoggingUtils.logCustom(new LoggingUtils.CustomEvent(PERF_EVENT).putCustomAttribute(
-                "Commit char ms", timer.getMs()));
+            LoggingUtils.logPerf(PerfEvent.COMMIT_CHAR, timer.getMs());
         });
 
         mode.register(ExactypeMode.Event.INSERT_CHAR);
     }
 
     public void onDeleteTapped() {
+        final long tapTimeNanos = System.nanoTime();
         enqueue(() -> {
             Timer timer = new Timer();
 
@@ -230,25 +526,26 @@ public class Exactype
                 return;
             }
 
+            StatsTracker statsTracker = Exactype.this.statsTracker;
+
             timer.addLeg("get selection");
             CharSequence selection = inputConnection.getSelectedText(0);
             if (TextUtils.isEmpty(selection)) {
                 // Nothing selected, just backspace
                 timer.addLeg("backspace");
                 if (statsTracker != null) {
-                    statsTracker.countCharacter("backspace");
+                    statsTracker.countEvent(StatsTracker.Event.BACKSPACE, tapTimeNanos);
                 }
                 inputConnection.deleteSurroundingText(1, 0);
             } else {
                 // Delete selection
                 timer.addLeg("delete selection");
                 if (statsTracker != null) {
-                    statsTracker.countCharacter("backspace");
+                    statsTracker.countEvent(StatsTracker.Event.BACKSPACE, tapTimeNanos);
                 }
                 inputConnection.commitText("", 1);
             }
-            LoggingUtils.logCustom(new LoggingUtils.CustomEvent(PERF_EVENT).putCustomAttribute(
-                "Delete char ms", timer.getMs()));
+            LoggingUtils.logPerf(PerfEvent.DELETE_CHAR, timer.getMs());
         });
     }
 
@@ -278,7 +575,9 @@ public class Exactype
     }
 
     public void onDeleteHeld() {
-        feedbackWindow.close();
+        if (feedbackWindow != null) {
+            feedbackWindow.close();
+        }
 
         if (!queueIsEmpty()) {
             // Don't enqueue new things repeatedly if there are already outstanding entries. This is
@@ -304,14 +603,12 @@ public class Exactype
                 int to_delete = countCharsToDelete(before);
                 timer.addLeg("delete word");
                 inputConnection.deleteSurroundingText(to_delete, 0);
-                LoggingUtils.logCustom(new LoggingUtils.CustomEvent(PERF_EVENT).putCustomAttribute(
-                    "Delete word ms", timer.getMs()));
+                LoggingUtils.logPerf(PerfEvent.DELETE_WORD, timer.getMs());
             } else {
                 // Delete selection
                 timer.addLeg("delete selection");
                 inputConnection.commitText("", 1);
-                LoggingUtils.logCustom(new LoggingUtils.CustomEvent(PERF_EVENT).putCustomAttribute(
-                    "Delete selection ms", timer.getMs()));
+                LoggingUtils.logPerf(PerfEvent.DELETE_SELECTION, timer.getMs());
             }
         });
 
@@ -324,6 +621,7 @@ public class Exactype
 
     public void onActionTapped() {
         final EditorInfo editorInfo = getCurrentInputEditorInfo();
+        final long tapTimeNanos = System.nanoTime();
 
         enqueue(() -> {
             Timer timer = new Timer();
@@ -333,13 +631,14 @@ public class Exactype
                 return;
             }
 
+            StatsTracker statsTracker = Exactype.this.statsTracker;
+
             if ((editorInfo.imeOptions & EditorInfo.IME_FLAG_NO_ENTER_ACTION) != 0) {
                 inputConnection.commitText("\n", 1);
                 if (statsTracker != null) {
-                    statsTracker.countCharacter("newline");
+                    statsTracker.countEvent(StatsTracker.Event.NEWLINE, tapTimeNanos);
                 }
-                LoggingUtils.logCustom(new LoggingUtils.CustomEvent(PERF_EVENT).putCustomAttribute(
-                    "Commit newline ms", timer.getMs()));
+                LoggingUtils.logPerf(PerfEvent.COMMIT_NEWLINE, timer.getMs());
 
                 mode.register(ExactypeMode.Event.INSERT_CHAR);
 
@@ -349,10 +648,9 @@ public class Exactype
             inputConnection.
                 performEditorAction(editorInfo.imeOptions & EditorInfo.IME_MASK_ACTION);
             if (statsTracker != null) {
-                statsTracker.countCharacter("editor action");
+                statsTracker.countEvent(StatsTracker.Event.EDITOR_ACTION, tapTimeNanos);
             }
-            LoggingUtils.logCustom(new LoggingUtils.CustomEvent(PERF_EVENT).putCustomAttribute(
-                "Perform editor action ms", timer.getMs()));
+            LoggingUtils.logPerf(PerfEvent.PERFORM_EDITOR_ACTION, timer.getMs());
         });
     }
 
@@ -363,6 +661,11 @@ public class Exactype
             return;
         }
 
+        if (popupKeyboardView == null || popupKeyboardWindow == null) {
+            popupKeyboardView = new PopupKeyboardView(this);
+            popupKeyboardWindow = new PopupWindow(popupKeyboardView);
+        }
+
         popupKeyboardView.setKeys(popupKeys);
         popupKeyboardView.setTextSize(view.getTextSize());
 
@@ -391,7 +694,7 @@ public class Exactype
     }
 
     public boolean isPopupKeyboardShowing() {
-        return popupKeyboardWindow.isShowing();
+        return popupKeyboardWindow != null && popupKeyboardWindow.isShowing();
     }
 
     @Override
@@ -406,23 +709,117 @@ public class Exactype
         float popupX = x - popupX0;
         float popupY = y - popupY0;
 
+        //noinspection ConstantConditions: The popup keyboard is showing, so it has been created
         onKeyTapped(popupKeyboardView.getClosestKey(popupX, popupY));
     }
 
+    public FrameTimeTracker getFrameTimeTracker() {
+        return frameTimeTracker;
+    }
+
+    public CacheManager getCacheManager() {
+        return cacheManager;
+    }
+
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    KeyboardCaches getKeyboardCaches() {
+        return keyboardCaches;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        trimCaches(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        trimCaches(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+    }
+
+    private void trimCaches(int level) {
+        // We might get killed soon
+        flushStats();
+
+        long usageBefore = cacheManager.getUsageBytes();
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // Nothing is showing, everything can be rebuilt when we're shown again
+            cacheManager.trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            // Keep what's on screen, which is what we used most recently
+            cacheManager.trimToSize(cacheManager.getBudgetBytes() / 4);
+        } else {
+            return;
+        }
+
+        LoggingUtils.logPerf(PerfEvent.TRIM_MEMORY,
+            level, usageBefore / 1024, cacheManager.getUsageBytes() / 1024);
+    }
+
     public void onTouchStart() {
+        // In case the main thread hasn't been idle since the first frame
+        finishStartup();
+
+        if (deviceProfile == null || deviceProfile.needsFrameReports()) {
+            // Otherwise frame rates won't change anything, no need to keep measuring
+            Display display = view == null ? null : view.getDisplay();
+            if (display != null) {
+                frameTimeTracker.setRefreshRate(display.getRefreshRate());
+            }
+            frameTimeTracker.startMonitoringFrames();
+        }
         VibrationUtils.vibrate(vibrator, vibrate_duration_ms);
     }
 
+    /**
+     * A key has been tapped, and this is where the tap landed relative to the key's center.
+     */
+    public void onKeyTouched(char key, float dxPixels, float dyPixels) {
+        StatsTracker statsTracker = this.statsTracker;
+        if (statsTracker == null) {
+            return;
+        }
+
+        DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
+        statsTracker.countTouchOffset(key,
+            (dxPixels / displayMetrics.xdpi) * GestureDetector.MM_PER_INCH,
+            (dyPixels / displayMetrics.ydpi) * GestureDetector.MM_PER_INCH);
+    }
+
     public void onTouchMove(float x, float y) {
-        feedbackWindow.update(x, y);
+        if (feedbackWindow != null) {
+            feedbackWindow.update(x, y);
+        }
     }
 
     public void onTouchEnd() {
-        feedbackWindow.close();
+        if (feedbackWindow != null) {
+            feedbackWindow.close();
+        }
+        frameTimeTracker.stopMonitoringFrames();
     }
 
     @Override
     public void onWindowHidden() {
-        feedbackWindow.close();
+        if (feedbackWindow != null) {
+            feedbackWindow.close();
+        }
+        frameTimeTracker.stopMonitoringFrames();
+
+        if (deviceProfile != null) {
+            deviceProfile.reportFrames(
+                frameTimeTracker.getFrameCount(), frameTimeTracker.getDroppedFrameCount());
+        }
+
+        Map<String, Integer> frameTimes = frameTimeTracker.drain();
+        StatsTracker statsTracker = this.statsTracker;
+        if (statsTracker != null) {
+            statsTracker.countFrameTimes(frameTimes);
+            statsTracker.requestFlush();
+        }
     }
 }
@@ -19,13 +19,25 @@ package com.gmail.walles.johan.exactype;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.RecordingCanvas;
+import android.graphics.RenderNode;
+import android.os.Build;
 import android.os.Handler;
 import android.view.MotionEvent;
 import android.view.View;
 
+import com.gmail.walles.johan.exactype.util.BitmapPool;
+import com.gmail.walles.johan.exactype.util.CacheManager;
+import com.gmail.walles.johan.exactype.util.FrameTimeHistogram;
+
+import java.util.List;
+
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 
 public class ExactypeView extends View implements ExactypeMode.ModeChangeListener {
+    private final Exactype exactype;
     private final GestureDetector gestureDetector;
     private final GestureListener gestureListener;
 
@@ -33,31 +45,51 @@ public class ExactypeView extends View implements ExactypeMode.ModeChangeListene
     private ExactypeMode.SwitchKey switchKey;
 
     private final KeyboardTheme theme;
+    @Nullable
     private UpdatedListener updatedListener;
 
+    private final FrameTimeHistogram drawTimes;
+    private final CacheManager cacheManager;
+    private final BitmapPool bitmapPool;
+
     /**
-     * We do all drawing operations via this bitmap.
-     *
-     * Except for in the ExactypeView, the contents of this bitmap is also displayed by the
-     * FeedbackView.
+     * Shared with any earlier and later incarnations of this view.
      */
-    private Bitmap bitmap;
+    private final KeyboardCaches caches;
+
+    private boolean hasBeenDrawn;
 
     /**
-     * This Canvas will always draw onto {@link #bitmap}.
+     * What we last drew onto the screen.
      */
-    private Canvas bitmapCanvas;
+    @Nullable
+    private PrerenderedKeyboard current;
+
+    /**
+     * Draws onto {@link PrerenderedKeyboard#bitmap}s.
+     */
+    private final Canvas bitmapCanvas = new Canvas();
+
+    private String[] rows;
 
     public ExactypeView(Context context) {
         super(context);
-        Exactype exactype = (Exactype)context;
+        exactype = (Exactype)context;
 
-        theme = new KeyboardTheme(context.getResources().getDisplayMetrics());
+        theme = new KeyboardTheme(
+            context.getResources().getDisplayMetrics(),
+            FontMetrics.get(context),
+            exactype.getKeyboardCaches().scaledSizes);
 
         gestureListener = new GestureListener(exactype);
 
         gestureDetector = new GestureDetector(
             getResources().getDisplayMetrics(), new Handler(), gestureListener);
+
+        drawTimes = exactype.getFrameTimeTracker().getHistogram("keyboard draw");
+        cacheManager = exactype.getCacheManager();
+        bitmapPool = exactype.getBitmapPool();
+        caches = exactype.getKeyboardCaches();
     }
 
     public float getTextSize() {
@@ -67,11 +99,12 @@ public class ExactypeView extends View implements ExactypeMode.ModeChangeListene
     public void onModeChange(String[] rows, ExactypeMode.SwitchKey switchKey) {
         theme.setShouldComputeTextSize();
 
-        keyCoordinator = new KeyCoordinator(rows);
+        keyCoordinator = caches.getKeyCoordinator(rows);
         keyCoordinator.setSize(theme.getWidth(), theme.getHeight());
 
         gestureListener.setKeyCoordinator(keyCoordinator);
 
+        this.rows = rows;
         this.switchKey = switchKey;
 
         invalidate();
@@ -79,21 +112,146 @@ public class ExactypeView extends View implements ExactypeMode.ModeChangeListene
 
     @Override
     protected void onDraw(Canvas canvas) {
-        updateBitmap(getWidth(), getHeight());
+        long t0 = System.nanoTime();
 
-        canvas.drawBitmap(bitmap, 0, 0, null);
+        PrerenderedKeyboard previous = current;
+        current = caches.getPrerendered(getWidth(), getHeight());
+        if (previous != current) {
+            if (previous != null && previous.shownBy == this) {
+                previous.shownBy = null;
+            }
+            current.shownBy = this;
+        }
+
+        if (canvas.isHardwareAccelerated()) {
+            // Pool the software fallback bitmaps, the FeedbackWindow can do without them. Going
+            // from least to most recently used keeps the cache manager's order intact.
+            List<PrerenderedKeyboard> prerendered = caches.getAllPrerendered();
+            for (int i = prerendered.size() - 1; i >= 0; i--) {
+                PrerenderedKeyboard dropBitmap = prerendered.get(i);
+                if (dropBitmap.bitmap != null) {
+                    caches.releaseBitmap(dropBitmap);
+                    cacheManager.touch(dropBitmap);
+                }
+            }
 
-        updatedListener.onKeyboardChanged();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                drawKeyboardNode(canvas, current);
+            } else {
+                // The framework records this into our view's display list
+                drawKeys(canvas);
+            }
+        } else {
+            updateBitmap(current);
+
+            //noinspection ConstantConditions: updateBitmap() sets it up
+            canvas.drawBitmap(current.bitmap, 0, 0, null);
+        }
+
+        // Account for whatever we just rendered
+        cacheManager.touch(current);
+
+        drawTimes.record(System.nanoTime() - t0);
+
+        if (updatedListener != null) {
+            updatedListener.onKeyboardChanged();
+        }
+
+        if (!hasBeenDrawn) {
+            hasBeenDrawn = true;
+            exactype.onFirstFrameDrawn();
+        }
     }
 
     /**
-     * This is the drawing logic for {@link #onDraw(Canvas)}.
+     * Draw our display list, re-recording it first if the keyboard has changed.
      */
-    private void updateBitmap(int width, int height) {
-        prepareBitmap(width, height);
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    private void drawKeyboardNode(Canvas canvas, PrerenderedKeyboard target) {
+        RenderNode node = target.node;
+        if (node == null) {
+            node = new RenderNode("Exactype keyboard");
+            node.setPosition(0, 0, target.width, target.height);
+            target.node = node;
+            target.setRenderedFrom(null, null, 0);
+        }
+
+        if (!target.isRenderedFrom(rows, switchKey, theme.getTextSize())) {
+            RecordingCanvas recordingCanvas = node.beginRecording();
+            try {
+                drawKeys(recordingCanvas);
+            } finally {
+                node.endRecording();
+            }
+            target.setRenderedFrom(rows, switchKey, theme.getTextSize());
+        }
+
+        canvas.drawRenderNode(node);
+    }
+
+    /**
+     * This is the software rendering fallback for {@link #onDraw(Canvas)}.
+     */
+    private void updateBitmap(PrerenderedKeyboard target) {
+        Bitmap.Config config = exactype.getBitmapConfig();
+        if (target.bitmap != null && target.bitmap.getConfig() != config) {
+            caches.releaseBitmap(target);
+        }
+
+        if (target.bitmap == null) {
+            target.bitmap = bitmapPool.get(target.width, target.height, config);
 
+            // We always fill the whole bitmap with an opaque color, this speeds up drawing it
+            target.bitmap.setHasAlpha(false);
+
+            target.setRenderedFrom(null, null, 0);
+        }
+
+        if (target.isRenderedFrom(rows, switchKey, theme.getTextSize())) {
+            // Already up to date, we've been here before
+            return;
+        }
+
+        bitmapCanvas.setBitmap(target.bitmap);
+        drawKeys(bitmapCanvas);
+        target.setRenderedFrom(rows, switchKey, theme.getTextSize());
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+
+        // We're likely being replaced by a new view, that one will pick up where we left off
+        if (current != null && current.shownBy == this) {
+            current.shownBy = null;
+        }
+        current = null;
+    }
+
+    /**
+     * Draw the whole keyboard onto a canvas, with the top left corner of the keyboard at (0, 0).
+     *
+     * Used by the FeedbackWindow when there's no {@link #getBitmap() bitmap} to show. On
+     * hardware accelerated canvases this re-uses our display list rather than drawing the keys
+     * again.
+     */
+    public void drawKeyboard(Canvas canvas) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+            && canvas.isHardwareAccelerated()
+            && current != null
+            && current.node != null
+            && current.isRenderedFrom(rows, switchKey, theme.getTextSize()))
+        {
+            canvas.drawRenderNode(current.node);
+            return;
+        }
+
+        drawKeys(canvas);
+    }
+
+    private void drawKeys(Canvas canvas) {
         // Clear the background
-        bitmapCanvas.drawColor(KeyboardTheme.BACKGROUND_COLOR);
+        canvas.drawColor(KeyboardTheme.BACKGROUND_COLOR);
 
         // Draw the keys
         for (KeyCoordinator.KeyInfo keyInfo : keyCoordinator.getKeys()) {
@@ -106,7 +264,7 @@ public class ExactypeView extends View implements ExactypeMode.ModeChangeListene
                 drawMe = Character.toString(keyInfo.character);
             }
 
-            bitmapCanvas.drawText(
+            canvas.drawText(
                 drawMe,
                 keyInfo.getX(),
                 keyInfo.getY() + theme.getVerticalCenterOffset(),
@@ -114,21 +272,6 @@ public class ExactypeView extends View implements ExactypeMode.ModeChangeListene
         }
     }
 
-    /**
-     * Make sure {@link #bitmapCanvas} is ready to take drawing operations
-     */
-    private void prepareBitmap(int width, int height) {
-        if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
-            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-
-            if (bitmapCanvas == null) {
-                bitmapCanvas = new Canvas(bitmap);
-            } else {
-                bitmapCanvas.setBitmap(bitmap);
-            }
-        }
-    }
-
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         theme.setBounds(widthMeasureSpec, heightMeasureSpec);
@@ -146,8 +289,24 @@ public class ExactypeView extends View implements ExactypeMode.ModeChangeListene
         this.updatedListener = updatedListener;
     }
 
+    /**
+     * The software rendered keyboard, or null if we're hardware accelerated. In the latter case,
+     * use {@link #drawKeyboard(Canvas)} instead.
+     */
+    @Nullable
     public Bitmap getBitmap() {
-        return bitmap;
+        if (current == null) {
+            return null;
+        }
+        return current.bitmap;
+    }
+
+    /**
+     * Tell us which {@link #getBitmap() bitmap} someone else keeps drawing from, or null when
+     * they're done with it. A borrowed bitmap isn't re-used until it has been returned.
+     */
+    public void setBorrowedBitmap(@Nullable Bitmap bitmap) {
+        caches.setBorrowedBitmap(bitmap);
     }
 
     public interface UpdatedListener {
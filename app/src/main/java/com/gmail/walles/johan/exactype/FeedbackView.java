@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.Shader;
+import android.view.View;
+
+import com.gmail.walles.johan.exactype.util.FrameTimeHistogram;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Shows the part of the keyboard that is around a given point.
+ *
+ * No pixels are copied; we either draw the keyboard's own bitmap through a translated shader, or
+ * have the keyboard draw itself onto our canvas.
+ */
+class FeedbackView extends View {
+    /**
+     * Half transparent background color for pixels outside of the keyboard.
+     */
+    private static final int OUTSIDE_COLOR =
+        (KeyboardTheme.BACKGROUND_COLOR & 0xffffff) | 0x80_00_00_00;
+
+    private final ExactypeView exactypeView;
+
+    private final FrameTimeHistogram drawTimes;
+
+    private final Paint bitmapPaint = new Paint();
+    private final Matrix shaderMatrix = new Matrix();
+
+    /**
+     * The bitmap our {@link #bitmapPaint} shader is currently reading from.
+     */
+    @Nullable
+    private Bitmap shaderBitmap;
+
+    private float centerX;
+    private float centerY;
+
+    FeedbackView(Context context, ExactypeView exactypeView, FrameTimeHistogram drawTimes) {
+        super(context);
+
+        this.exactypeView = exactypeView;
+        this.drawTimes = drawTimes;
+    }
+
+    /**
+     * Center this view on a new keyboard coordinate.
+     */
+    void setCenter(float x, float y) {
+        centerX = x;
+        centerY = y;
+
+        // Need to invalidate for move-around tracking to work
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        long t0 = System.nanoTime();
+        drawFeedback(canvas);
+        drawTimes.record(System.nanoTime() - t0);
+    }
+
+    private void drawFeedback(Canvas canvas) {
+        canvas.drawColor(OUTSIDE_COLOR, PorterDuff.Mode.SRC);
+
+        // Where the keyboard's top left corner is in our coordinates
+        float dx = getWidth() / 2f - centerX;
+        float dy = getHeight() / 2f - centerY;
+
+        // The part of us that is covered by the keyboard
+        float left = Math.max(0, dx);
+        float top = Math.max(0, dy);
+        float right = Math.min(getWidth(), dx + exactypeView.getWidth());
+        float bottom = Math.min(getHeight(), dy + exactypeView.getHeight());
+        if (right <= left || bottom <= top) {
+            // Not touching the keyboard, nothing more to draw
+            return;
+        }
+
+        Bitmap keyboardBitmap = exactypeView.getBitmap();
+        if (keyboardBitmap == null) {
+            // Don't keep a dropped keyboard bitmap alive
+            dropShader();
+
+            // The keyboard is hardware accelerated, have it draw itself onto us
+            canvas.save();
+            canvas.clipRect(left, top, right, bottom);
+            canvas.translate(dx, dy);
+            exactypeView.drawKeyboard(canvas);
+            canvas.restore();
+            return;
+        }
+
+        if (keyboardBitmap != shaderBitmap) {
+            // This happens only when the keyboard bitmap gets re-allocated, not on every move
+            shaderBitmap = keyboardBitmap;
+            exactypeView.setBorrowedBitmap(keyboardBitmap);
+            bitmapPaint.setShader(
+                new BitmapShader(keyboardBitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+        }
+
+        shaderMatrix.setTranslate(dx, dy);
+        bitmapPaint.getShader().setLocalMatrix(shaderMatrix);
+        canvas.drawRect(left, top, right, bottom, bitmapPaint);
+    }
+
+    /**
+     * Stop reading from the keyboard bitmap, so that it can be re-used.
+     */
+    private void dropShader() {
+        if (shaderBitmap == null) {
+            return;
+        }
+
+        shaderBitmap = null;
+        bitmapPaint.setShader(null);
+        exactypeView.setBorrowedBitmap(null);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+
+        // Our window has been dismissed, we'll set up a new shader when we're shown again
+        dropShader();
+    }
+}
@@ -19,90 +19,98 @@ package com.gmail.walles.johan.exactype;
 import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.PorterDuff;
-import android.graphics.Rect;
-import android.graphics.drawable.BitmapDrawable;
+import android.view.Choreographer;
 import android.view.Gravity;
 import android.view.ViewPropertyAnimator;
-import android.widget.ImageView;
 import android.widget.PopupWindow;
 
+import com.gmail.walles.johan.exactype.util.FrameTimeHistogram;
+
 import androidx.annotation.Nullable;
+import timber.log.Timber;
 
 /**
  * A box somewhere above the keyboard showing where the keyboard is being touched.
  */
 public class FeedbackWindow implements ExactypeView.UpdatedListener {
     private PopupWindow window;
-    private ImageView imageView;
-    private Canvas canvas;
+    private FeedbackView feedbackView;
 
     private final Context context;
 
     private final ExactypeView exactypeView;
 
+    private final FrameTimeHistogram drawTimes;
+
     private final int fadeoutDurationMs;
 
     @Nullable
     private ViewPropertyAnimator fadeout;
 
-    private int size;
-
     private float lastX;
     private float lastY;
 
-    public FeedbackWindow(Context context, ExactypeView exactypeView) {
+    private final Choreographer choreographer;
+
+    /**
+     * Redraws us with the latest coordinates once per display frame.
+     */
+    private final Choreographer.FrameCallback updateOnNextFrame = frameTimeNanos -> {
+        updatePending = false;
+        update();
+    };
+
+    /**
+     * True if {@link #updateOnNextFrame} has been posted but not run yet.
+     */
+    private boolean updatePending;
+
+    /**
+     * How many moves we have skipped redrawing for because they were superseded by a later move
+     * within the same frame.
+     */
+    private long coalescedUpdatesCount;
+
+    public FeedbackWindow(Exactype exactype, ExactypeView exactypeView) {
         this.exactypeView = exactypeView;
         exactypeView.setUpdatedListener(this);
 
-        this.context = context;
+        drawTimes = exactype.getFrameTimeTracker().getHistogram("feedback draw");
+
+        this.context = exactype;
+
+        choreographer = Choreographer.getInstance();
 
         fadeoutDurationMs =
-            context.getResources().getInteger(android.R.integer.config_longAnimTime);
+            exactype.getResources().getInteger(android.R.integer.config_longAnimTime);
     }
 
-    private void setUpCanvas() {
-        size = exactypeView.getHeight() / 3;
-
-        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
-        imageView = new ImageView(context);
-        imageView.setImageDrawable(new BitmapDrawable(context.getResources(), bitmap));
+    private void setUpWindow() {
+        int size = exactypeView.getHeight() / 3;
 
-        canvas = new Canvas(bitmap);
+        feedbackView = new FeedbackView(context, exactypeView, drawTimes);
 
-        window = new PopupWindow(imageView, size, size);
+        window = new PopupWindow(feedbackView, size, size);
         window.setClippingEnabled(false);
     }
 
     /**
-     * Copy pixels from our ExactypeView into our ImageView
+     * Point our FeedbackView at the last touched keyboard coordinate
      */
     private void update() {
-        if (canvas == null) {
-            setUpCanvas();
+        if (feedbackView == null) {
+            setUpWindow();
         }
 
-        // Use half transparent background color for pixels outside of the keyboard
-        canvas.drawColor(
-            (KeyboardTheme.BACKGROUND_COLOR & 0xffffff) | 0x80_00_00_00,
-            PorterDuff.Mode.SRC);
-
-        // Copy keyboard pixels into our .canvas
-        Rect source = new Rect(
-            (int)(lastX - size / 2f),
-            (int)(lastY - size / 2f),
-            (int)(lastX + size / 2f),
-            (int)(lastY + size / 2f));
-        Rect dest = new Rect(0, 0, size - 1, size -1);
-        canvas.drawBitmap(exactypeView.getBitmap(), source, dest, null);
-
-        // Need to invalidate for move-around tracking to work
-        imageView.invalidate();
+        feedbackView.setCenter(lastX, lastY);
     }
 
     public void onKeyboardChanged() {
+        if (!isShowing()) {
+            // Nothing to update
+            return;
+        }
+
         if (fadeout == null) {
             update();
         } else {
@@ -122,6 +130,8 @@ public class FeedbackWindow implements ExactypeView.UpdatedListener {
             fadeout = null;
         }
 
+        cancelPendingUpdate();
+
         lastX = x;
         lastY = y;
         update();
@@ -131,38 +141,70 @@ public class FeedbackWindow implements ExactypeView.UpdatedListener {
 
         float y0 = -window.getHeight();
 
-        imageView.setAlpha(1.0f);
+        feedbackView.setAlpha(1.0f);
         window.showAtLocation(exactypeView, Gravity.NO_GRAVITY, (int)x0, (int)y0);
     }
 
     /**
-     * Update the image shown by the feedback window
+     * Update the image shown by the feedback window.
+     * <p>
+     * The actual redraw is done on the next display frame, using the coordinates from the last
+     * call before that frame.
+     *
      * @param x The X coordinate where the user is touching the view
      * @param y The Y coordinate where the user is touching the view
      */
     public void update(float x, float y) {
         lastX = x;
         lastY = y;
-        update();
+
+        if (!isShowing()) {
+            // show() will pick up the new coordinates
+            return;
+        }
+
+        if (updatePending) {
+            coalescedUpdatesCount++;
+            return;
+        }
+
+        updatePending = true;
+        choreographer.postFrameCallback(updateOnNextFrame);
+    }
+
+    private boolean isShowing() {
+        return window != null && window.isShowing();
+    }
+
+    private void cancelPendingUpdate() {
+        if (!updatePending) {
+            return;
+        }
+
+        choreographer.removeFrameCallback(updateOnNextFrame);
+        updatePending = false;
     }
 
     /**
      * Close the feedback window
      */
     public void close() {
+        cancelPendingUpdate();
+        Timber.v("Feedback updates coalesced so far: %d", coalescedUpdatesCount);
+
         if (fadeout != null) {
             // Fadeout already in progress, just let that one run its course
             return;
         }
 
-        if (imageView == null) {
+        if (feedbackView == null) {
             // https://fabric.io/johan-walles-projects/android/apps/com.gmail.walles.johan.exactype/issues/57b18503ffcdc04250abc844
             //
-            // Note that if get more NPEs on imageView accesses we should tag it with @Nullable
+            // Note that if get more NPEs on feedbackView accesses we should tag it with @Nullable
             return;
         }
 
-        fadeout = imageView.animate();
+        fadeout = feedbackView.animate();
         fadeout.alpha(0f).setDuration(fadeoutDurationMs).setListener(
             new AnimatorListenerAdapter() {
                 @Override
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.os.Build;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import timber.log.Timber;
+
+/**
+ * Text measurements for our keyboard font at size 100, shared by all {@link KeyboardTheme}s.
+ * <p>
+ * Measuring is done once per display density, font scale, typeface and system build. The results
+ * are persisted so that we don't have to measure anything after a cold start either.
+ */
+class FontMetrics {
+    private static final String FILE_NAME = "font-metrics.txt";
+
+    /**
+     * We always draw with the default typeface. If that changes, this should change as well.
+     */
+    private static final String TYPEFACE = "default";
+
+    static final String ALL_HEIGHTS = "M";
+    static final String LONG_ROW = "qwertyuiopå";
+
+    @Nullable
+    private static FontMetrics cached;
+
+    private final String key;
+
+    final int fontSize100HeightPx;
+    final float fontSize100CharWidthPx;
+    final float fontSize100LongestRowLength;
+    final float fontSize100VerticalCenterOffset;
+
+    @VisibleForTesting
+    FontMetrics(
+        String key,
+        int fontSize100HeightPx,
+        float fontSize100CharWidthPx,
+        float fontSize100LongestRowLength,
+        float fontSize100VerticalCenterOffset)
+    {
+        this.key = key;
+        this.fontSize100HeightPx = fontSize100HeightPx;
+        this.fontSize100CharWidthPx = fontSize100CharWidthPx;
+        this.fontSize100LongestRowLength = fontSize100LongestRowLength;
+        this.fontSize100VerticalCenterOffset = fontSize100VerticalCenterOffset;
+    }
+
+    /**
+     * Get font metrics for the current configuration, from memory, from disk or by measuring,
+     * in that order of preference.
+     */
+    static synchronized FontMetrics get(Context context) {
+        Resources resources = context.getResources();
+        String key = resources.getDisplayMetrics().density
+            + "/" + resources.getConfiguration().fontScale
+            + "/" + TYPEFACE
+            + "/" + Build.FINGERPRINT;
+
+        if (cached != null && cached.key.equals(key)) {
+            return cached;
+        }
+
+        File file = new File(context.getCacheDir(), FILE_NAME);
+        FontMetrics fontMetrics = load(file, key);
+        if (fontMetrics == null) {
+            fontMetrics = measure(key);
+            save(file, fontMetrics);
+        }
+
+        cached = fontMetrics;
+        return fontMetrics;
+    }
+
+    private static FontMetrics measure(String key) {
+        Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.SUBPIXEL_TEXT_FLAG);
+        textPaint.setTextAlign(Paint.Align.CENTER);
+        textPaint.setTextSize(100);
+
+        Rect bounds = new Rect();
+        textPaint.getTextBounds(ALL_HEIGHTS, 0, ALL_HEIGHTS.length(), bounds);
+        int heightPx = bounds.height();
+
+        // From: http://www.slideshare.net/rtc1/intro-todrawingtextandroid
+        float verticalCenterOffset = -bounds.top - bounds.height() / 2f;
+
+        textPaint.getTextBounds(LONG_ROW, 0, LONG_ROW.length(), bounds);
+        float longestRowLength = bounds.width();
+        float charWidthPx = bounds.width() / (float)LONG_ROW.length();
+
+        Timber.i("Font metrics measured for %s", key);
+        return new FontMetrics(
+            key, heightPx, charWidthPx, longestRowLength, verticalCenterOffset);
+    }
+
+    /**
+     * @return null if the file is missing, unreadable or for some other key
+     */
+    @VisibleForTesting
+    @Nullable
+    static FontMetrics load(File file, String key) {
+        try (FileReader fileReader = new FileReader(file);
+             BufferedReader in = new BufferedReader(fileReader)) {
+            if (!key.equals(in.readLine())) {
+                return null;
+            }
+
+            return new FontMetrics(
+                key,
+                Integer.parseInt(in.readLine()),
+                Float.parseFloat(in.readLine()),
+                Float.parseFloat(in.readLine()),
+                Float.parseFloat(in.readLine()));
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException | NumberFormatException | NullPointerException e) {
+            Timber.w(e, "Failed reading font metrics from %s", file.getAbsolutePath());
+            return null;
+        }
+    }
+
+    @VisibleForTesting
+    static void save(File file, FontMetrics fontMetrics) {
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        try (FileWriter fileWriter = new FileWriter(tempFile);
+             PrintWriter out = new PrintWriter(fileWriter)) {
+            out.println(fontMetrics.key);
+            out.println(fontMetrics.fontSize100HeightPx);
+            out.println(fontMetrics.fontSize100CharWidthPx);
+            out.println(fontMetrics.fontSize100LongestRowLength);
+            out.println(fontMetrics.fontSize100VerticalCenterOffset);
+        } catch (IOException e) {
+            Timber.w(e, "Failed writing font metrics to %s", tempFile.getAbsolutePath());
+            return;
+        }
+
+        if (!tempFile.renameTo(file)) {
+            Timber.w("Rename failed: %s->%s", tempFile.getAbsolutePath(), file.getAbsolutePath());
+        }
+    }
+}
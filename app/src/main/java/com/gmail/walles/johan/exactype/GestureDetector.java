@@ -22,15 +22,13 @@ import android.view.MotionEvent;
 import android.view.ViewConfiguration;
 
 import com.gmail.walles.johan.exactype.util.LoggingUtils;
+import com.gmail.walles.johan.exactype.util.PerfEvent;
 
 import androidx.annotation.Nullable;
 import timber.log.Timber;
 
 public class GestureDetector {
-    private static final String TOUCH_EVENT = "Touch";
-    private static final String SWIPE_EVENT_HORIZONTAL = "Horizontal Swipe";
-    private static final String SWIPE_EVENT_VERTICAL = "Vertical Swipe";
-    private static final float MM_PER_INCH = 25.4f;
+    static final float MM_PER_INCH = 25.4f;
 
     private enum Direction {
         HORIZONTAL,
@@ -313,28 +311,20 @@ public class GestureDetector {
         float dx = Math.abs(x - startX);
         float dy = Math.abs(y - startY);
         if (handleTapEnd(x, y, timestamp)) {
-            LoggingUtils.CustomEvent touchMetadata = new LoggingUtils.CustomEvent(TOUCH_EVENT);
-            touchMetadata.putCustomAttribute(
-                "Horizontal distance (mm)", pixelsToMm(dx, Direction.HORIZONTAL));
-            touchMetadata.putCustomAttribute(
-                "Vertical distance (mm)", pixelsToMm(dy, Direction.VERTICAL));
-            LoggingUtils.logCustom(touchMetadata);
+            LoggingUtils.logPerf(PerfEvent.TOUCH,
+                pixelsToMm(dx, Direction.HORIZONTAL), pixelsToMm(dy, Direction.VERTICAL));
 
             return true;
         }
 
         if (handleSwipeEnd(x, y)) {
-            LoggingUtils.CustomEvent touchMetadata;
             if (dx > dy) {
-                touchMetadata = new LoggingUtils.CustomEvent(SWIPE_EVENT_HORIZONTAL);
-                touchMetadata.putCustomAttribute(
-                    "Distance (mm)", pixelsToMm(dx, Direction.HORIZONTAL));
+                LoggingUtils.logPerf(
+                    PerfEvent.HORIZONTAL_SWIPE, pixelsToMm(dx, Direction.HORIZONTAL));
             } else {
-                touchMetadata = new LoggingUtils.CustomEvent(SWIPE_EVENT_VERTICAL);
-                touchMetadata.putCustomAttribute(
-                    "Distance (mm)", pixelsToMm(dy, Direction.VERTICAL));
+                LoggingUtils.logPerf(
+                    PerfEvent.VERTICAL_SWIPE, pixelsToMm(dy, Direction.VERTICAL));
             }
-            LoggingUtils.logCustom(touchMetadata);
 
             return true;
         }
@@ -66,7 +66,25 @@ public class GestureListener {
     }
 
     public void onSingleTap(float x, float y) {
-        char tappedKey = keyCoordinator.getClosestKey(x, y);
+        onKeyReleased(x, y, true);
+    }
+
+    /**
+     * @param reportOffset True if this was a real tap, so that where it landed on the key says
+     *                     something about the user's aim
+     */
+    private void onKeyReleased(float x, float y, boolean reportOffset) {
+        KeyCoordinator.KeyInfo tappedKeyInfo = keyCoordinator.getClosestKeyInfo(x, y);
+        if (tappedKeyInfo == null) {
+            return;
+        }
+
+        char tappedKey = tappedKeyInfo.character;
+        if (reportOffset && tappedKey != ExactypeMode.SwitchKey.MARKER) {
+            exactype.onKeyTouched(
+                tappedKey, x - tappedKeyInfo.getX(), y - tappedKeyInfo.getY());
+        }
+
         if (tappedKey == '⌫') {
             exactype.onDeleteTapped();
         } else if (tappedKey == ExactypeMode.SwitchKey.MARKER) {
@@ -111,7 +129,8 @@ public class GestureListener {
                 return;
             }
 
-            onSingleTap(x, y);
+            // Where a long press ends doesn't tell where the user aimed, don't report any offset
+            onKeyReleased(x, y, false);
         }
     }
 
@@ -16,7 +16,11 @@
 
 package com.gmail.walles.johan.exactype;
 
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+
+import androidx.annotation.Nullable;
 
 /**
  * Keeps track of coordinates for keys.
@@ -77,9 +81,23 @@ public class KeyCoordinator {
         }
     }
 
+    /**
+     * We remember key positions for this many sizes. Portrait and landscape, plus some margin.
+     */
+    private static final int MAX_CACHED_SIZES = 4;
+
     private final String[] rows;
     private final KeyInfo[] keys;
 
+    /**
+     * Key coordinates by size, as x / y pairs in the same order as {@link #keys}.
+     */
+    private final Map<Long, int[]> positionsBySize = new HashMap<>();
+
+    private boolean hasSize;
+    private int width;
+    private int height;
+
     public KeyCoordinator(String[] rows) {
         this.rows = rows;
 
@@ -97,7 +115,40 @@ public class KeyCoordinator {
         }
     }
 
+    /**
+     * Position the keys for a keyboard of the given size.
+     * <p>
+     * Positions are remembered per size, so going back to a size we have been at before doesn't
+     * recompute anything.
+     */
     public void setSize(int width, int height) {
+        if (hasSize && width == this.width && height == this.height) {
+            return;
+        }
+        hasSize = true;
+        this.width = width;
+        this.height = height;
+
+        long sizeKey = ((long)width << 32) | (height & 0xffffffffL);
+        int[] positions = positionsBySize.get(sizeKey);
+        if (positions == null) {
+            positions = computePositions(width, height);
+
+            if (positionsBySize.size() >= MAX_CACHED_SIZES) {
+                positionsBySize.clear();
+            }
+            positionsBySize.put(sizeKey, positions);
+        }
+
+        for (int i = 0; i < keys.length; i++) {
+            keys[i].x = positions[2 * i];
+            keys[i].y = positions[2 * i + 1];
+        }
+    }
+
+    private int[] computePositions(int width, int height) {
+        int[] positions = new int[2 * keys.length];
+
         int index = 0;
         for (int row_number = 0; row_number < rows.length; row_number++) {
             String row = rows[row_number];
@@ -108,11 +159,12 @@ public class KeyCoordinator {
                 int y =
                     ((row_number + 1) * height) / rows.length - height / (2 * rows.length);
 
-                keys[index].x = x;
-                keys[index].y = y;
-                index++;
+                positions[index++] = x;
+                positions[index++] = y;
             }
         }
+
+        return positions;
     }
 
     public KeyInfo[] getKeys() {
@@ -123,6 +175,17 @@ public class KeyCoordinator {
      * Find the key closest to a coordinate.
      */
     public char getClosestKey(float x, float y) {
+        KeyInfo closestKey = getClosestKeyInfo(x, y);
+        return closestKey != null ? closestKey.character : '\0';
+    }
+
+    /**
+     * Find the key closest to a coordinate.
+     *
+     * @return null if we have no keys
+     */
+    @Nullable
+    public KeyInfo getClosestKeyInfo(float x, float y) {
         KeyInfo closestKey = null;
         float closestDistance2 = Float.MAX_VALUE;
         for (KeyInfo keyInfo : keys) {
@@ -136,6 +199,6 @@ public class KeyCoordinator {
             }
         }
 
-        return closestKey != null ? closestKey.character : '\0';
+        return closestKey;
     }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype;
+
+import android.graphics.Bitmap;
+
+import com.gmail.walles.johan.exactype.util.BitmapPool;
+import com.gmail.walles.johan.exactype.util.CacheManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Keyboard layouts and renderings by size.
+ * <p>
+ * The input view gets re-created on every configuration change. These caches live in the service
+ * instead, so that rotating back to a size we have already been at can re-use what we did
+ * before.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+class KeyboardCaches {
+    /**
+     * Portrait and landscape.
+     */
+    private static final int MAX_PRERENDERED_SIZES = 2;
+
+    /**
+     * Key coordinators for all keyboard modes we have been in. These remember key geometry for
+     * previous sizes, so we don't need to recompute that when rotating back and forth.
+     */
+    private final Map<String[], KeyCoordinator> keyCoordinators = new IdentityHashMap<>();
+
+    /**
+     * For {@link KeyboardTheme}, by max width and height.
+     */
+    final Map<Long, KeyboardTheme.ScaledSize> scaledSizes = new HashMap<>();
+
+    /**
+     * Most recently used first.
+     */
+    private final List<PrerenderedKeyboard> prerendered =
+        new ArrayList<>(MAX_PRERENDERED_SIZES);
+
+    private final CacheManager cacheManager;
+    private final BitmapPool bitmapPool;
+
+    /**
+     * The bitmap the FeedbackView's shader is reading from, if any. This one must not go back to
+     * the pool while it's borrowed, re-using it would change what the FeedbackView shows.
+     */
+    @Nullable
+    private Bitmap borrowedBitmap;
+
+    /**
+     * True if we let go of {@link #borrowedBitmap} while it was borrowed. It goes into the pool
+     * when it's returned.
+     */
+    private boolean borrowedBitmapReleased;
+
+    KeyboardCaches(CacheManager cacheManager, BitmapPool bitmapPool) {
+        this.cacheManager = cacheManager;
+        this.bitmapPool = bitmapPool;
+    }
+
+    KeyCoordinator getKeyCoordinator(String[] rows) {
+        KeyCoordinator keyCoordinator = keyCoordinators.get(rows);
+        if (keyCoordinator == null) {
+            keyCoordinator = new KeyCoordinator(rows);
+            keyCoordinators.put(rows, keyCoordinator);
+        }
+        return keyCoordinator;
+    }
+
+    /**
+     * Find or create what we have rendered for a given size.
+     */
+    PrerenderedKeyboard getPrerendered(int width, int height) {
+        for (int i = 0; i < prerendered.size(); i++) {
+            PrerenderedKeyboard candidate = prerendered.get(i);
+            if (candidate.width != width || candidate.height != height) {
+                continue;
+            }
+
+            if (i > 0) {
+                // Move to front
+                prerendered.remove(i);
+                prerendered.add(0, candidate);
+            }
+            return candidate;
+        }
+
+        if (prerendered.size() >= MAX_PRERENDERED_SIZES) {
+            // Drop the least recently used one, keeping its bitmap for re-use
+            PrerenderedKeyboard dropped = prerendered.remove(prerendered.size() - 1);
+            cacheManager.remove(dropped);
+            releaseBitmap(dropped);
+        }
+
+        PrerenderedKeyboard created = new PrerenderedKeyboard(width, height);
+        prerendered.add(0, created);
+        return created;
+    }
+
+    /**
+     * Everything we have rendered, most recently used first.
+     */
+    List<PrerenderedKeyboard> getAllPrerendered() {
+        return prerendered;
+    }
+
+    /**
+     * Hand a prerendered bitmap back to the pool, unless the FeedbackView is still showing it.
+     */
+    void releaseBitmap(PrerenderedKeyboard target) {
+        if (target.bitmap == null) {
+            return;
+        }
+
+        if (target.bitmap == borrowedBitmap) {
+            // Still being shown by the FeedbackView, pool it once that lets go of it
+            borrowedBitmapReleased = true;
+        } else {
+            bitmapPool.release(target.bitmap);
+        }
+        target.bitmap = null;
+        target.setRenderedFrom(null, null, 0);
+    }
+
+    /**
+     * @see ExactypeView#setBorrowedBitmap(Bitmap)
+     */
+    void setBorrowedBitmap(@Nullable Bitmap bitmap) {
+        if (bitmap == borrowedBitmap) {
+            return;
+        }
+
+        if (borrowedBitmap != null && borrowedBitmapReleased) {
+            bitmapPool.release(borrowedBitmap);
+        }
+        borrowedBitmap = bitmap;
+        borrowedBitmapReleased = false;
+    }
+}
@@ -18,20 +18,19 @@ package com.gmail.walles.johan.exactype;
 
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Rect;
 import android.util.DisplayMetrics;
 import android.util.TypedValue;
 import android.view.View;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import timber.log.Timber;
 
 public class KeyboardTheme {
     public static final int BACKGROUND_COLOR = Color.BLUE;
     private static final int COLOR = Color.WHITE;
 
-    private static final String ALL_HEIGHTS = "M";
-    private static final String LONG_ROW = "qwertyuiopå";
-
     /**
      * Put some air between the letters.
      */
@@ -44,6 +43,32 @@ public class KeyboardTheme {
      */
     private static final float KEYBOARD_HEIGHT_MULTIPLIER = 1.3f;
 
+    /**
+     * We remember scaled sizes for this many screen sizes. Portrait and landscape, plus some
+     * margin.
+     */
+    private static final int MAX_CACHED_SIZES = 4;
+
+    /**
+     * The outcome of {@link #scaleToScreenWidth(int, int)} for some max width and height.
+     */
+    static class ScaledSize {
+        final int width;
+        final int height;
+        final float textSize;
+
+        ScaledSize(int width, int height, float textSize) {
+            this.width = width;
+            this.height = height;
+            this.textSize = textSize;
+        }
+    }
+
+    /**
+     * By max width and height. Possibly shared with other themes, see {@link KeyboardCaches}.
+     */
+    private final Map<Long, ScaledSize> scaledSizes;
+
     private final int screenHeight;
     private final Paint textPaint;
     private final Paint strokePaint;
@@ -62,7 +87,31 @@ public class KeyboardTheme {
      */
     private boolean shouldScaleToScreenWidth;
 
-    public KeyboardTheme(DisplayMetrics displayMetrics) {
+    /**
+     * The measure specs we last adapted to in {@link #setBounds(int, int)}.
+     */
+    private int boundsWidthMeasureSpec;
+    private int boundsHeightMeasureSpec;
+
+    /**
+     * False if our sizes have changed since the last {@link #setBounds(int, int)} call.
+     */
+    private boolean boundsValid;
+
+    public KeyboardTheme(DisplayMetrics displayMetrics, FontMetrics fontMetrics) {
+        this(displayMetrics, fontMetrics, new HashMap<>());
+    }
+
+    /**
+     * @param scaledSizes Where to remember how we scaled to different sizes
+     */
+    public KeyboardTheme(
+        DisplayMetrics displayMetrics,
+        FontMetrics fontMetrics,
+        Map<Long, ScaledSize> scaledSizes)
+    {
+        this.scaledSizes = scaledSizes;
+
         strokePaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.SUBPIXEL_TEXT_FLAG);
         strokePaint.setStyle(Paint.Style.STROKE);
         strokePaint.setColor(COLOR);
@@ -79,17 +128,10 @@ public class KeyboardTheme {
 
         textPaint.setTextSize(100);
 
-        Rect bounds = new Rect();
-        textPaint.getTextBounds(ALL_HEIGHTS, 0, ALL_HEIGHTS.length(), bounds);
-        fontSize100HeightPx = bounds.height();
-
-        textPaint.getTextBounds(LONG_ROW, 0, LONG_ROW.length(), bounds);
-        fontSize100LongestRowLength = bounds.width();
-        fontSize100CharWidthPx = bounds.width() / (float)LONG_ROW.length();
-
-        // From: http://www.slideshare.net/rtc1/intro-todrawingtextandroid
-        textPaint.getTextBounds(ALL_HEIGHTS, 0, ALL_HEIGHTS.length(), bounds);
-        fontSize100VerticalCenterOffset = -bounds.top - bounds.height() / 2f;
+        fontSize100HeightPx = fontMetrics.fontSize100HeightPx;
+        fontSize100LongestRowLength = fontMetrics.fontSize100LongestRowLength;
+        fontSize100CharWidthPx = fontMetrics.fontSize100CharWidthPx;
+        fontSize100VerticalCenterOffset = fontMetrics.fontSize100VerticalCenterOffset;
 
         screenHeight = displayMetrics.heightPixels;
     }
@@ -110,6 +152,7 @@ public class KeyboardTheme {
      */
     public void setContents(String keys, float textSize) {
         shouldScaleToScreenWidth = false;
+        invalidateBounds();
 
         verticalCenterOffset = (fontSize100VerticalCenterOffset * textSize) / 100f;
 
@@ -124,6 +167,11 @@ public class KeyboardTheme {
 
     public void setShouldComputeTextSize() {
         shouldScaleToScreenWidth = true;
+        invalidateBounds();
+    }
+
+    private void invalidateBounds() {
+        boundsValid = false;
     }
 
     public int getWidth() {
@@ -149,6 +197,17 @@ public class KeyboardTheme {
      * @param maxHeight Maximum keyboard height (= half of the screen height)
      */
     private void scaleToScreenWidth(int maxWidth, int maxHeight) {
+        long sizeKey = ((long)maxWidth << 32) | (maxHeight & 0xffffffffL);
+        ScaledSize scaledSize = scaledSizes.get(sizeKey);
+        if (scaledSize != null) {
+            // We have been here before, probably rotating back
+            width = scaledSize.width;
+            height = scaledSize.height;
+            textPaint.setTextSize(scaledSize.textSize);
+            verticalCenterOffset = (fontSize100VerticalCenterOffset * scaledSize.textSize) / 100f;
+            return;
+        }
+
         width = maxWidth;
 
         // Scale the font size so that the longest line matches the display width
@@ -168,6 +227,11 @@ public class KeyboardTheme {
         float textSize = 100 * factor / LETTER_ZOOM_OUT_FACTOR;
         textPaint.setTextSize(textSize);
         verticalCenterOffset = (fontSize100VerticalCenterOffset * textSize) / 100f;
+
+        if (scaledSizes.size() >= MAX_CACHED_SIZES) {
+            scaledSizes.clear();
+        }
+        scaledSizes.put(sizeKey, new ScaledSize(width, height, textSize));
     }
 
     /**
@@ -177,6 +241,17 @@ public class KeyboardTheme {
      * @param heightMeasureSpec From {@link View#onMeasure(int, int)}
      */
     public void setBounds(int widthMeasureSpec, int heightMeasureSpec) {
+        if (boundsValid
+            && widthMeasureSpec == boundsWidthMeasureSpec
+            && heightMeasureSpec == boundsHeightMeasureSpec)
+        {
+            // Nothing changed since last time
+            return;
+        }
+        boundsValid = true;
+        boundsWidthMeasureSpec = widthMeasureSpec;
+        boundsHeightMeasureSpec = heightMeasureSpec;
+
         int maxWidth = View.MeasureSpec.getSize(widthMeasureSpec);
         int maxHeight = View.MeasureSpec.getSize(heightMeasureSpec);
         if (maxHeight > screenHeight * 0.4) {
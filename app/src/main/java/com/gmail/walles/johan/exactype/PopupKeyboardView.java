@@ -20,6 +20,8 @@ import android.content.Context;
 import android.graphics.Canvas;
 import android.view.View;
 
+import com.gmail.walles.johan.exactype.util.FrameTimeHistogram;
+
 import timber.log.Timber;
 
 public class PopupKeyboardView extends View {
@@ -29,10 +31,14 @@ public class PopupKeyboardView extends View {
 
     private float textSize;
 
+    private final FrameTimeHistogram drawTimes;
+
     public PopupKeyboardView(Context context) {
         super(context);
 
-        theme = new KeyboardTheme(getResources().getDisplayMetrics());
+        theme = new KeyboardTheme(getResources().getDisplayMetrics(), FontMetrics.get(context));
+
+        drawTimes = ((Exactype)context).getFrameTimeTracker().getHistogram("popup draw");
     }
 
     public void setTextSize(float textSize) {
@@ -66,6 +72,8 @@ public class PopupKeyboardView extends View {
 
     @Override
     protected void onDraw(Canvas canvas) {
+        long t0 = System.nanoTime();
+
         // Clear the background
         canvas.drawColor(KeyboardTheme.BACKGROUND_COLOR);
 
@@ -80,6 +88,8 @@ public class PopupKeyboardView extends View {
                 keyInfo.getY() + theme.getVerticalCenterOffset(),
                 theme.getTextPaint());
         }
+
+        drawTimes.record(System.nanoTime() - t0);
     }
 
     @Override
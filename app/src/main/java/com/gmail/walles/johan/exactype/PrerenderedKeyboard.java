@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype;
+
+import android.graphics.Bitmap;
+import android.graphics.RenderNode;
+import android.os.Build;
+import android.view.View;
+
+import com.gmail.walles.johan.exactype.util.CacheManager;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Keyboard contents rendered at one size.
+ * <p>
+ * We keep one of these for each of the last few sizes we have been rendered at, so that rotating
+ * back and forth can re-use what was rendered before. Under memory pressure the
+ * {@link CacheManager} can drop their contents, which then get re-rendered on next use.
+ */
+class PrerenderedKeyboard implements CacheManager.Entry {
+    final int width;
+    final int height;
+
+    /**
+     * Software rendering fallback, used when our canvas isn't hardware accelerated.
+     *
+     * Except for in the ExactypeView, the contents of this bitmap is also displayed by the
+     * FeedbackView.
+     */
+    @Nullable
+    Bitmap bitmap;
+
+    /**
+     * When hardware accelerated on Android 10+, the keys are recorded into this display list.
+     */
+    @Nullable
+    RenderNode node;
+
+    /**
+     * The view currently showing this, re-rendered if we get dropped.
+     */
+    @Nullable
+    View shownBy;
+
+    // What the bitmap or display list was last rendered from, null rows means nothing
+    @Nullable
+    private String[] rows;
+    private ExactypeMode.SwitchKey switchKey;
+    private float textSize;
+
+    PrerenderedKeyboard(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    boolean isRenderedFrom(String[] rows, ExactypeMode.SwitchKey switchKey, float textSize) {
+        return this.rows == rows && this.switchKey == switchKey && this.textSize == textSize;
+    }
+
+    void setRenderedFrom(
+        @Nullable String[] rows, ExactypeMode.SwitchKey switchKey, float textSize)
+    {
+        this.rows = rows;
+        this.switchKey = switchKey;
+        this.textSize = textSize;
+    }
+
+    @Override
+    public long getSizeBytes() {
+        long sizeBytes = 0;
+        if (bitmap != null) {
+            sizeBytes += bitmap.getAllocationByteCount();
+        }
+        if (node != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            sizeBytes += node.computeApproximateMemoryUsage();
+        }
+        return sizeBytes;
+    }
+
+    @Override
+    public void drop() {
+        // Not recycling the bitmap, the FeedbackView could still be showing it
+        bitmap = null;
+
+        if (node != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            node.discardDisplayList();
+        }
+        node = null;
+
+        setRenderedFrom(null, null, 0);
+
+        if (shownBy != null) {
+            // We're on screen, re-render
+            shownBy.invalidate();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Streaming parser for our "key: count" text files.
+ * <p>
+ * Lines are parsed in place in a reused buffer, the only per-line allocations are the keys and
+ * the boxed counts going into the result map. Lines that can't be parsed are skipped and counted
+ * rather than failing the whole file.
+ * <p>
+ * Lines starting with "# " are headers. Files start with a {@link #FORMAT_HEADER format header},
+ * files without one are from before we had headers and are treated as format 1.
+ */
+class CountsFileParser {
+    /**
+     * Bump this if the file format changes in a way older versions can't read.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    static final String FORMAT_HEADER = "# format ";
+
+    /**
+     * Snapshot files have this followed by the generation of the last log compacted into them.
+     */
+    static final String LOG_GENERATION_HEADER = "# log generation ";
+
+    private static final String HEADER_PREFIX = "# ";
+
+    /**
+     * Gets the counts as they are parsed. Counts can be larger than what fits in an int, it's up
+     * to each listener what to do about that.
+     */
+    interface Listener {
+        void onCount(String key, long count) throws IOException;
+    }
+
+    private final char[] readBuffer = new char[8192];
+    private char[] line = new char[128];
+    private int lineLength;
+
+    private int badLineCount;
+    private long logGeneration;
+
+    /**
+     * Parse counts from a reader into a map. Counts too large for an int are skipped as bad lines.
+     *
+     * @throws IOException on read failures, or if the file is in a format newer than we support
+     */
+    void parse(Reader in, Map<String, Integer> counts) throws IOException {
+        parse(in, (key, count) -> {
+            if (count > Integer.MAX_VALUE) {
+                badLineCount++;
+                return;
+            }
+            counts.put(key, (int)count);
+        });
+    }
+
+    /**
+     * Parse counts from a reader, one at a time, without collecting them anywhere.
+     *
+     * @throws IOException on read failures, or if the file is in a format newer than we support
+     */
+    void parse(Reader in, Listener listener) throws IOException {
+        badLineCount = 0;
+        logGeneration = 0;
+        lineLength = 0;
+
+        while (true) {
+            int readCount = in.read(readBuffer);
+            if (readCount == -1) {
+                break;
+            }
+
+            for (int i = 0; i < readCount; i++) {
+                char c = readBuffer[i];
+                if (c == '\n') {
+                    parseLine(listener);
+                    lineLength = 0;
+                    continue;
+                }
+
+                if (lineLength == line.length) {
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[lineLength++] = c;
+            }
+        }
+
+        if (lineLength > 0) {
+            // Last line had no newline
+            parseLine(listener);
+        }
+    }
+
+    /**
+     * Number of lines skipped by the last {@link #parse(Reader, Listener)} call.
+     */
+    int getBadLineCount() {
+        return badLineCount;
+    }
+
+    /**
+     * The log generation header value from the last {@link #parse(Reader, Listener)} call, 0 if
+     * none.
+     */
+    long getLogGeneration() {
+        return logGeneration;
+    }
+
+    private void parseLine(Listener listener) throws IOException {
+        int length = lineLength;
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+
+        if (startsWith(length, HEADER_PREFIX)) {
+            parseHeader(length);
+            return;
+        }
+
+        if (length < "x: 5".length()) {
+            // Line not long enough to contain what we want
+            badLineCount++;
+            return;
+        }
+
+        int lastColonIndex = -1;
+        for (int i = length - 1; i > 0; i--) {
+            if (line[i] == ':') {
+                lastColonIndex = i;
+                break;
+            }
+        }
+        if (lastColonIndex <= 0
+            || lastColonIndex + 2 >= length
+            || line[lastColonIndex + 1] != ' ')
+        {
+            // No ": " after a non-empty key, or no room for any number
+            badLineCount++;
+            return;
+        }
+
+        long count = parseNumber(lastColonIndex + 2, length);
+        if (count < 0) {
+            badLineCount++;
+            return;
+        }
+
+        listener.onCount(new String(line, 0, lastColonIndex), count);
+    }
+
+    private void parseHeader(int length) throws IOException {
+        if (startsWith(length, FORMAT_HEADER)) {
+            long version = parseNumber(FORMAT_HEADER.length(), length);
+            if (version < 0) {
+                badLineCount++;
+                return;
+            }
+            if (version > FORMAT_VERSION) {
+                throw new IOException(
+                    "Stats format " + version + " not supported, max is " + FORMAT_VERSION);
+            }
+            return;
+        }
+
+        if (startsWith(length, LOG_GENERATION_HEADER)) {
+            long generation = parseNumber(LOG_GENERATION_HEADER.length(), length);
+            if (generation < 0) {
+                // Better to risk counting a log twice than to lose the whole snapshot
+                badLineCount++;
+                return;
+            }
+            logGeneration = generation;
+        }
+
+        // Unknown headers are ignored
+    }
+
+    private boolean startsWith(int length, String prefix) {
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse a non-negative decimal number from our line buffer.
+     *
+     * @return -1 if there's anything but digits in there, or if there are too many digits
+     */
+    private long parseNumber(int start, int end) {
+        if (start >= end || end - start > 18) {
+            return -1;
+        }
+
+        long number = 0;
+        for (int i = start; i < end; i++) {
+            char c = line[i];
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Key pair counts and inter-key interval histograms, in a memory mapped file with a fixed layout.
+ * <p>
+ * Keys are identified by {@link KeySlots} rather than by characters, so that the matrix of all
+ * pairs has a fixed size.
+ * <p>
+ * File layout, all big endian:
+ * <ul>
+ * <li>Header: magic, version, slot count and bucket count
+ * <li>For each pair of slots, first key major: {@link #BUCKET_COUNT} ints counting intervals
+ * </ul>
+ * Interval bucket <i>n</i> counts intervals shorter than {@link #BUCKET_LIMITS_MS}[<i>n</i>] but
+ * not shorter than the previous limit. Pauses longer than the last limit don't count as pairs.
+ *
+ * @see MappedCounters
+ */
+class KeyPairCounters {
+    private static final int MAGIC = 0x45_58_4b_50;  // "EXKP"
+    private static final int VERSION = 1;
+
+    private static final int SLOT_COUNT = KeySlots.COUNT;
+
+    static final int[] BUCKET_LIMITS_MS = { 50, 100, 150, 200, 300, 450, 700, 1000 };
+    static final int BUCKET_COUNT = BUCKET_LIMITS_MS.length;
+
+    /**
+     * Intervals this long or longer are pauses rather than transitions.
+     */
+    static final int MAX_INTERVAL_MS = BUCKET_LIMITS_MS[BUCKET_COUNT - 1];
+
+    private static final int HEADER_BYTES = 16;
+    private static final int PAIR_BYTES = BUCKET_COUNT * 4;
+    private static final int FILE_BYTES = HEADER_BYTES + SLOT_COUNT * SLOT_COUNT * PAIR_BYTES;
+
+    /**
+     * One pair of keys, as read from a key pairs file.
+     */
+    static class Pair {
+        final int fromSlot;
+        final int toSlot;
+        final int[] buckets;
+        final int count;
+
+        Pair(int fromSlot, int toSlot, int[] buckets) {
+            this.fromSlot = fromSlot;
+            this.toSlot = toSlot;
+            this.buckets = buckets;
+
+            int count = 0;
+            for (int bucketCount : buckets) {
+                count += bucketCount;
+            }
+            this.count = count;
+        }
+
+        /**
+         * Estimate the median interval by interpolating within the median bucket.
+         */
+        int getMedianMs() {
+            // Half way, rounding up
+            int target = (count + 1) / 2;
+
+            int countSoFar = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                int bucketCount = buckets[bucket];
+                if (countSoFar + bucketCount < target) {
+                    countSoFar += bucketCount;
+                    continue;
+                }
+
+                int lowMs = bucket == 0 ? 0 : BUCKET_LIMITS_MS[bucket - 1];
+                int highMs = BUCKET_LIMITS_MS[bucket];
+                return lowMs + ((highMs - lowMs) * (target - countSoFar)) / bucketCount;
+            }
+
+            return MAX_INTERVAL_MS;
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+
+    private KeyPairCounters(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Map a key pairs file, creating it if needed.
+     *
+     * @throws IOException if the file can't be mapped, or is of some other version
+     */
+    static KeyPairCounters open(File file) throws IOException {
+        boolean isNew = !file.exists() || file.length() == 0;
+        if (!isNew && file.length() != FILE_BYTES) {
+            throw new IOException(
+                "Key pairs file has unexpected size " + file.length() + ": "
+                    + file.getAbsolutePath());
+        }
+
+        // The mapping stays valid after the file has been closed
+        MappedByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(FILE_BYTES);
+            buffer = randomAccessFile.getChannel().map(
+                FileChannel.MapMode.READ_WRITE, 0, FILE_BYTES);
+        }
+
+        if (isNew) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, SLOT_COUNT);
+            buffer.putInt(12, BUCKET_COUNT);
+            buffer.force();
+            Timber.i("Key pairs file created: %s", file.getAbsolutePath());
+        } else {
+            validateHeader(buffer, file);
+        }
+
+        return new KeyPairCounters(buffer);
+    }
+
+    private static void validateHeader(MappedByteBuffer buffer, File file) throws IOException {
+        if (buffer.getInt(0) != MAGIC
+            || buffer.getInt(4) != VERSION
+            || buffer.getInt(8) != SLOT_COUNT
+            || buffer.getInt(12) != BUCKET_COUNT)
+        {
+            throw new IOException(
+                "Key pairs file has unsupported header: " + file.getAbsolutePath());
+        }
+    }
+
+    private static int getPairOffset(int fromSlot, int toSlot) {
+        return HEADER_BYTES + (fromSlot * SLOT_COUNT + toSlot) * PAIR_BYTES;
+    }
+
+    /**
+     * Count one transition between two keys.
+     * <p>
+     * Must not be called concurrently from more than one thread.
+     *
+     * @return false if the interval was too long to count as a transition
+     */
+    boolean record(int fromSlot, int toSlot, long intervalMs) {
+        if (intervalMs < 0 || intervalMs >= MAX_INTERVAL_MS) {
+            return false;
+        }
+
+        int bucket = 0;
+        while (intervalMs >= BUCKET_LIMITS_MS[bucket]) {
+            bucket++;
+        }
+
+        int offset = getPairOffset(fromSlot, toSlot) + bucket * 4;
+        buffer.putInt(offset, buffer.getInt(offset) + 1);
+        return true;
+    }
+
+    /**
+     * Add to the count for one interval bucket of a pair. Same threading rules as for
+     * {@link #record(int, int, long)}.
+     */
+    void add(int fromSlot, int toSlot, int bucket, int count) {
+        int offset = getPairOffset(fromSlot, toSlot) + bucket * 4;
+        buffer.putInt(offset, buffer.getInt(offset) + count);
+    }
+
+    /**
+     * Make sure everything has made it to disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Read all pairs with a non-zero count from a key pairs file.
+     *
+     * @return Empty if there is no such file
+     */
+    static List<Pair> read(File file) throws IOException {
+        List<Pair> pairs = new ArrayList<>();
+        if (!file.exists()) {
+            return pairs;
+        }
+        if (file.length() != FILE_BYTES) {
+            throw new IOException(
+                "Key pairs file has unexpected size " + file.length() + ": "
+                    + file.getAbsolutePath());
+        }
+
+        MappedByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            buffer = randomAccessFile.getChannel().map(
+                FileChannel.MapMode.READ_ONLY, 0, FILE_BYTES);
+        }
+        validateHeader(buffer, file);
+
+        return read(buffer);
+    }
+
+    /**
+     * Read all pairs from our own mapping, without touching the file system.
+     */
+    List<Pair> read() {
+        return read(buffer);
+    }
+
+    private static List<Pair> read(MappedByteBuffer buffer) {
+        List<Pair> pairs = new ArrayList<>();
+        for (int fromSlot = 0; fromSlot < SLOT_COUNT; fromSlot++) {
+            for (int toSlot = 0; toSlot < SLOT_COUNT; toSlot++) {
+                int offset = getPairOffset(fromSlot, toSlot);
+
+                int[] buckets = null;
+                for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                    int bucketCount = buffer.getInt(offset + bucket * 4);
+                    if (bucketCount == 0) {
+                        continue;
+                    }
+                    if (buckets == null) {
+                        buckets = new int[BUCKET_COUNT];
+                    }
+                    buckets[bucket] = bucketCount;
+                }
+
+                if (buckets != null) {
+                    pairs.add(new Pair(fromSlot, toSlot, buckets));
+                }
+            }
+        }
+
+        return pairs;
+    }
+}
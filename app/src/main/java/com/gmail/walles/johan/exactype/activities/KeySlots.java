@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import java.util.Arrays;
+
+/**
+ * Maps keys to a fixed number of slots, for stats that need to stay a fixed size however many
+ * different characters get typed.
+ * <p>
+ * Upper and lower case letters share a slot since they share a key, and all characters we don't
+ * have slots for share the {@link #OTHER} slot.
+ */
+class KeySlots {
+    /**
+     * Characters with slots of their own, in slot order.
+     */
+    private static final String SLOT_CHARS = "abcdefghijklmnopqrstuvwxyzåäö0123456789 .,'?!-";
+
+    static final int BACKSPACE = SLOT_CHARS.length();
+    static final int NEWLINE = BACKSPACE + 1;
+    static final int EDITOR_ACTION = NEWLINE + 1;
+    static final int OTHER = EDITOR_ACTION + 1;
+    static final int COUNT = OTHER + 1;
+
+    /**
+     * Slots for all chars below 0x100, others go into the {@link #OTHER} slot.
+     */
+    private static final byte[] LATIN1_SLOTS = new byte[0x100];
+    static {
+        Arrays.fill(LATIN1_SLOTS, (byte)OTHER);
+        for (int slot = 0; slot < SLOT_CHARS.length(); slot++) {
+            LATIN1_SLOTS[SLOT_CHARS.charAt(slot)] = (byte)slot;
+        }
+    }
+
+    private KeySlots() {
+        // Only static methods in here
+    }
+
+    static int getSlot(char character) {
+        char lowercase = Character.toLowerCase(character);
+        if (lowercase == '\n') {
+            return NEWLINE;
+        }
+        if (lowercase == '⌫') {
+            return BACKSPACE;
+        }
+        if (lowercase >= LATIN1_SLOTS.length) {
+            return OTHER;
+        }
+        return LATIN1_SLOTS[lowercase];
+    }
+
+    static int getSlot(StatsTracker.Event event) {
+        switch (event) {
+            case BACKSPACE:
+                return BACKSPACE;
+            case NEWLINE:
+                return NEWLINE;
+            case EDITOR_ACTION:
+                return EDITOR_ACTION;
+            default:
+                throw new IllegalArgumentException("Unsupported event: " + event);
+        }
+    }
+
+    /**
+     * The slot with some {@link #getName(int) name}.
+     *
+     * @return -1 for unknown names
+     */
+    static int getSlot(String name) {
+        for (int slot = 0; slot < COUNT; slot++) {
+            if (getName(slot).equals(name)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * What a slot is called in the stats files.
+     */
+    static String getName(int slot) {
+        if (slot < SLOT_CHARS.length()) {
+            return Character.toString(SLOT_CHARS.charAt(slot));
+        }
+        if (slot == BACKSPACE) {
+            return StatsTracker.Event.BACKSPACE.key;
+        }
+        if (slot == NEWLINE) {
+            return StatsTracker.Event.NEWLINE.key;
+        }
+        if (slot == EDITOR_ACTION) {
+            return StatsTracker.Event.EDITOR_ACTION.key;
+        }
+        return "other";
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Counters living in a memory mapped file with a fixed layout.
+ * <p>
+ * Bumping a counter is a write into the mapping, there is no parsing and no file rewriting.
+ * Once written the counts survive us getting killed, {@link #force()} is only needed to survive
+ * the whole device going down.
+ * <p>
+ * File layout, all big endian:
+ * <ul>
+ * <li>Header: magic, version, slot count and a reserved int
+ * <li>{@link #SLOT_COUNT} slots of: key id + 1 as an int (0 means empty), a reserved int and a
+ * count as a long
+ * </ul>
+ * Slots are found by hashing the key id, with linear probing.
+ */
+class MappedCounters {
+    private static final int MAGIC = 0x45_58_53_43;  // "EXSC"
+    private static final int VERSION = 1;
+
+    static final int SLOT_COUNT = 1024;
+    private static final int SLOT_COUNT_BITS = 10;
+
+    private static final int HEADER_BYTES = 16;
+    private static final int SLOT_BYTES = 16;
+    private static final int FILE_BYTES = HEADER_BYTES + SLOT_COUNT * SLOT_BYTES;
+
+    private final MappedByteBuffer buffer;
+
+    private MappedCounters(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Map a counters file, creating it if needed.
+     *
+     * @throws IOException if the file can't be mapped, or is of some other version
+     */
+    static MappedCounters open(File file) throws IOException {
+        boolean isNew = !file.exists() || file.length() == 0;
+        if (!isNew && file.length() != FILE_BYTES) {
+            throw new IOException(
+                "Counters file has unexpected size " + file.length() + ": "
+                    + file.getAbsolutePath());
+        }
+
+        // The mapping stays valid after the file has been closed
+        MappedByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(FILE_BYTES);
+            buffer = randomAccessFile.getChannel().map(
+                FileChannel.MapMode.READ_WRITE, 0, FILE_BYTES);
+        }
+
+        if (isNew) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, SLOT_COUNT);
+            buffer.force();
+            Timber.i("Counters file created: %s", file.getAbsolutePath());
+        } else {
+            validateHeader(buffer, file);
+        }
+
+        return new MappedCounters(buffer);
+    }
+
+    private static void validateHeader(MappedByteBuffer buffer, File file) throws IOException {
+        if (buffer.getInt(0) != MAGIC
+            || buffer.getInt(4) != VERSION
+            || buffer.getInt(8) != SLOT_COUNT)
+        {
+            throw new IOException(
+                "Counters file has unsupported header: " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Add one to the count for a key.
+     * <p>
+     * Must not be called concurrently from more than one thread.
+     *
+     * @return false if there was no room for a new key
+     */
+    boolean increment(int keyId) {
+        int storedId = keyId + 1;
+        int slot = (storedId * 0x9e3779b1) >>> (32 - SLOT_COUNT_BITS);
+        for (int probes = 0; probes < SLOT_COUNT; probes++) {
+            int offset = HEADER_BYTES + slot * SLOT_BYTES;
+            int slotId = buffer.getInt(offset);
+            if (slotId == storedId) {
+                buffer.putLong(offset + 8, buffer.getLong(offset + 8) + 1);
+                return true;
+            }
+
+            if (slotId == 0) {
+                // Claim this slot, count first so nobody sees our key with a bogus count
+                buffer.putLong(offset + 8, 1);
+                buffer.putInt(offset, storedId);
+                return true;
+            }
+
+            slot = (slot + 1) & (SLOT_COUNT - 1);
+        }
+
+        return false;
+    }
+
+    /**
+     * Make sure everything has made it to disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Read all counts from a counters file.
+     *
+     * @return Counts by key id, empty if there is no such file
+     */
+    static Map<Integer, Long> read(File file) throws IOException {
+        Map<Integer, Long> counts = new HashMap<>();
+        if (!file.exists()) {
+            return counts;
+        }
+        if (file.length() != FILE_BYTES) {
+            throw new IOException(
+                "Counters file has unexpected size " + file.length() + ": "
+                    + file.getAbsolutePath());
+        }
+
+        MappedByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            buffer = randomAccessFile.getChannel().map(
+                FileChannel.MapMode.READ_ONLY, 0, FILE_BYTES);
+        }
+        validateHeader(buffer, file);
+
+        return read(buffer);
+    }
+
+    /**
+     * Read all counts from our own mapping, without touching the file system.
+     *
+     * @return Counts by key id
+     */
+    Map<Integer, Long> read() {
+        return read(buffer);
+    }
+
+    private static Map<Integer, Long> read(MappedByteBuffer buffer) {
+        Map<Integer, Long> counts = new HashMap<>();
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            int offset = HEADER_BYTES + slot * SLOT_BYTES;
+            int storedId = buffer.getInt(offset);
+            if (storedId == 0) {
+                continue;
+            }
+
+            counts.put(storedId - 1, buffer.getLong(offset + 8));
+        }
+
+        return counts;
+    }
+}
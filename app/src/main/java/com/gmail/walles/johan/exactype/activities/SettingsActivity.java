@@ -31,6 +31,8 @@ import androidx.appcompat.app.AppCompatActivity;
 public class SettingsActivity extends AppCompatActivity {
     public static final int DEFAULT_VIBRATE_DURATION_MS = 20;
     public static final String VIBRATE_DURATION_MS_KEY = "vibrate_duration_preference";
+    public static final boolean DEFAULT_REDUCED_COLOR_DEPTH = false;
+    public static final String REDUCED_COLOR_DEPTH_KEY = "reduced_color_depth_preference";
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import timber.log.Timber;
+
+/**
+ * Append-only binary log of count deltas.
+ * <p>
+ * The log starts with a header telling which generation it is. A snapshot file that has had a
+ * log compacted into it remembers that log's generation, so that the log isn't counted twice if
+ * we die between writing the snapshot and resetting the log.
+ * <p>
+ * The header is followed by one record per flush:
+ * <ul>
+ * <li>payload length, int
+ * <li>payload: entry count as an int, followed by that many (UTF key, int delta) pairs
+ * <li>CRC32 of the payload, int
+ * </ul>
+ * Reading stops at the first torn or corrupt record, so a bad write only costs us the last batch.
+ */
+class StatsLog {
+    private static final int MAGIC = 0x45_58_53_4c;  // "EXSL"
+    private static final int HEADER_BYTES = 4 + 8;
+
+    /**
+     * Anything longer than this is a corrupt length field rather than a real record.
+     */
+    private static final int MAX_PAYLOAD_BYTES = 1024 * 1024;
+
+    static class Contents {
+        /**
+         * Zero if there's no valid log.
+         */
+        final long generation;
+
+        final Map<String, Integer> deltas;
+
+        /**
+         * Number of bytes from the start of the file that make up valid records. Anything after
+         * this is a torn or corrupt tail.
+         */
+        final long validLength;
+
+        Contents(long generation, Map<String, Integer> deltas, long validLength) {
+            this.generation = generation;
+            this.deltas = deltas;
+            this.validLength = validLength;
+        }
+    }
+
+    private StatsLog() {
+        // Only static methods in here
+    }
+
+    static Contents read(File file) throws IOException {
+        Map<String, Integer> deltas = new HashMap<>();
+        try (FileInputStream fileInputStream = new FileInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(fileInputStream)))
+        {
+            long generation;
+            try {
+                if (in.readInt() != MAGIC) {
+                    Timber.w("Not a stats log, ignoring: %s", file.getAbsolutePath());
+                    return new Contents(0, deltas, 0);
+                }
+                generation = in.readLong();
+            } catch (EOFException e) {
+                Timber.w("Stats log header truncated, ignoring: %s", file.getAbsolutePath());
+                return new Contents(0, deltas, 0);
+            }
+
+            long validLength = HEADER_BYTES;
+            while (true) {
+                byte[] payload = readRecord(in);
+                if (payload == null) {
+                    break;
+                }
+
+                if (!addPayload(payload, deltas)) {
+                    break;
+                }
+                validLength += 4 + payload.length + 4;
+            }
+
+            long droppedBytes = file.length() - validLength;
+            if (droppedBytes > 0) {
+                Timber.w("Ignoring %d bytes of torn or corrupt stats log records at the end of %s",
+                    droppedBytes, file.getAbsolutePath());
+            }
+
+            return new Contents(generation, deltas, validLength);
+        } catch (FileNotFoundException e) {
+            return new Contents(0, deltas, 0);
+        }
+    }
+
+    /**
+     * @return null on end of file, or on a torn or corrupt record
+     */
+    private static byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length < 0 || length > MAX_PAYLOAD_BYTES) {
+                return null;
+            }
+
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+
+            int checksum = in.readInt();
+            if (checksum != checksum(payload)) {
+                return null;
+            }
+
+            return payload;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Add the deltas of a record to a map. Nothing is added unless the whole record is valid.
+     *
+     * @return false if the payload couldn't be parsed
+     */
+    private static boolean addPayload(byte[] payload, Map<String, Integer> deltas) {
+        Map<String, Integer> recordDeltas = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                String key = in.readUTF();
+                int delta = in.readInt();
+                recordDeltas.put(key, delta);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+
+        for (Map.Entry<String, Integer> entry : recordDeltas.entrySet()) {
+            Integer count = deltas.get(entry.getKey());
+            deltas.put(entry.getKey(), (count == null ? 0 : count) + entry.getValue());
+        }
+        return true;
+    }
+
+    /**
+     * Append a batch of deltas as one record.
+     * <p>
+     * The file must start with a valid header and must not have any torn tail, see
+     * {@link #reset(File, long)} and {@link #truncate(File, long)}.
+     */
+    static void append(File file, Map<String, Integer> deltas) throws IOException {
+        ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        try (DataOutputStream payload = new DataOutputStream(payloadBytes)) {
+            payload.writeInt(deltas.size());
+            for (Map.Entry<String, Integer> entry : deltas.entrySet()) {
+                payload.writeUTF(entry.getKey());
+                payload.writeInt(entry.getValue());
+            }
+        }
+        byte[] payload = payloadBytes.toByteArray();
+
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(4 + payload.length + 4);
+        try (DataOutputStream record = new DataOutputStream(recordBytes)) {
+            record.writeInt(payload.length);
+            record.write(payload);
+            record.writeInt(checksum(payload));
+        }
+
+        // One write per record keeps torn writes to the end of the file
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(recordBytes.toByteArray());
+        }
+    }
+
+    /**
+     * Replace the log with an empty one of the given generation.
+     */
+    static void reset(File file, long generation) throws IOException {
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(fileOutputStream))
+        {
+            out.writeInt(MAGIC);
+            out.writeLong(generation);
+        }
+
+        if (!tempFile.renameTo(file)) {
+            throw new IOException(
+                "Rename failed: " + tempFile.getAbsolutePath() + "->" + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Cut off a torn or corrupt tail.
+     */
+    static void truncate(File file, long length) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(length);
+        }
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, bytes.length);
+        return (int)crc32.getValue();
+    }
+}
@@ -18,7 +18,10 @@ package com.gmail.walles.johan.exactype.activities;
 
 import android.content.Context;
 
-import java.io.BufferedReader;
+import com.gmail.walles.johan.exactype.util.BackgroundExecutor;
+import com.gmail.walles.johan.exactype.util.FrameTimeHistogram;
+import com.gmail.walles.johan.exactype.util.IntRingBuffer;
+
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -26,189 +29,1323 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Calendar;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
 import timber.log.Timber;
 
 public class StatsTracker {
+    private static final String FRAME_TIMES_FILE_NAME = "frame-times.txt";
+
+    public static final long DEFAULT_FLUSH_DELAY_MS = 3000;
+
+    /**
+     * Compact the log into the snapshot file when the log grows larger than this.
+     */
+    private static final long COMPACT_LOG_BYTES = 64 * 1024;
+
+    /**
+     * Counts as read from a snapshot file.
+     */
+    private static class Snapshot {
+        /**
+         * Logs of this generation or older are already included in the counts.
+         */
+        final long logGeneration;
+
+        final Map<String, Integer> counts;
+
+        Snapshot(long logGeneration, Map<String, Integer> counts) {
+            this.logGeneration = logGeneration;
+            this.counts = counts;
+        }
+    }
+
+    /**
+     * Things other than single characters that we count.
+     */
+    public enum Event {
+        BACKSPACE("backspace"),
+        NEWLINE("newline"),
+        EDITOR_ACTION("editor action");
+
+        /**
+         * What this event is called in the stats files.
+         */
+        final String key;
+
+        Event(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final Event[] EVENTS = Event.values();
+
+    /**
+     * Time periods we can get counts for.
+     *
+     * @see Stats#periodCounts
+     */
+    public enum Period {
+        LAST_24_HOURS,
+        LAST_7_DAYS,
+        THIS_MONTH
+    }
+
+    /**
+     * How often one key followed another, and how long it took.
+     */
+    public static class KeyPair {
+        public final String from;
+        public final String to;
+        public final int count;
+
+        /**
+         * Estimated from a histogram, so only approximate.
+         */
+        public final int medianMs;
+
+        KeyPair(String from, String to, int count, int medianMs) {
+            this.from = from;
+            this.to = to;
+            this.count = count;
+            this.medianMs = medianMs;
+        }
+    }
+
+    /**
+     * Everything the stats screen shows, as of some point in time.
+     */
+    public static class Stats {
+        /**
+         * When these stats were collected, from {@link System#nanoTime()}. For telling which of
+         * two {@link Stats} is the more recent one.
+         */
+        public final long collectedNanos;
+
+        /**
+         * All time counts by key.
+         */
+        public final Map<String, Integer> counts;
+
+        /**
+         * Counts for each {@link Period}. Unlike the all time counts, these are by key slot, so
+         * upper and lower case letters are counted together and rare characters as "other".
+         */
+        public final Map<Period, Map<String, Integer>> periodCounts;
+
+        public final List<KeyPair> keyPairs;
+
+        /**
+         * Approximate counts for the most common words.
+         */
+        public final Map<String, Integer> topWords;
+
+        Stats(
+            long collectedNanos,
+            Map<String, Integer> counts,
+            Map<Period, Map<String, Integer>> periodCounts,
+            List<KeyPair> keyPairs,
+            Map<String, Integer> topWords)
+        {
+            this.collectedNanos = collectedNanos;
+            this.counts = counts;
+            this.periodCounts = periodCounts;
+            this.keyPairs = keyPairs;
+            this.topWords = topWords;
+        }
+    }
+
+    /**
+     * Stats collected in memory after flushes, for whoever is watching in this process.
+     */
+    private static final MutableLiveData<Stats> publishedStats = new MutableLiveData<>();
+
+    /**
+     * The tracker for this app's stats files, see {@link #get(Context)}.
+     */
+    @Nullable
+    @GuardedBy("StatsTracker.class")
+    private static StatsTracker instance;
+
+    /**
+     * In {@link MappedCounters}, characters are identified by their char values and events by
+     * this plus their ordinals.
+     */
+    private static final int FIRST_EVENT_KEY_ID = 0x10000;
+
+    /**
+     * Characters below this are counted in {@link #charDeltas}, others go through the
+     * {@link #countQueue}. This covers Latin, Greek and Cyrillic.
+     */
+    private static final int DENSE_CHAR_LIMIT = 0x800;
+
+    private static final int KEY_QUEUE_CAPACITY = 1024;
+
+    /**
+     * Flush right away when this many keys have been queued, rather than waiting for the flush
+     * delay.
+     */
+    private static final int KEY_QUEUE_FLUSH_THRESHOLD = KEY_QUEUE_CAPACITY / 4;
+
+    /**
+     * Key ids of typed characters and events, on their way from the input thread to a flush.
+     * Used for whatever doesn't fit in our {@link #mappedCounters}.
+     */
+    private final IntRingBuffer keyQueue = new IntRingBuffer(KEY_QUEUE_CAPACITY);
+
+    /**
+     * Keys we had to drop because the {@link #keyQueue} was full.
+     */
+    private final AtomicInteger droppedKeyCount = new AtomicInteger();
+
+    @GuardedBy("this")
+    private final int[] drainedKeys = new int[KEY_QUEUE_CAPACITY];
+
+    /**
+     * Counts per character since the last flush.
+     */
+    @GuardedBy("this")
+    private final int[] charDeltas = new int[DENSE_CHAR_LIMIT];
+
+    /**
+     * Which {@link #charDeltas} are non-zero, so that flushing doesn't need to scan them all.
+     */
+    @GuardedBy("this")
+    private final char[] dirtyChars = new char[DENSE_CHAR_LIMIT];
+    @GuardedBy("this")
+    private int dirtyCharCount;
+
+    @GuardedBy("this")
+    private final int[] eventDeltas = new int[EVENTS.length];
+
+    /**
+     * Named counts, and frame times. These don't come from the input thread.
+     */
     @GuardedBy("countQueueLock")
     private final List<String> countQueue = new ArrayList<>();
+    @GuardedBy("countQueueLock")
+    private final Map<String, Integer> frameTimesQueue = new HashMap<>();
     private final Object countQueueLock = new Object();
 
+    private volatile long flushDelayMs = DEFAULT_FLUSH_DELAY_MS;
+
+    /**
+     * Shared with others, so we don't keep a thread of our own alive.
+     */
+    private final ScheduledExecutorService executor = BackgroundExecutor.get();
+
+    /**
+     * True from when a delayed flush has been scheduled until it starts.
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /**
+     * True from when an immediate flush has been requested until it starts.
+     */
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    /**
+     * How long our flushes take. Persisted together with the frame times.
+     */
+    @GuardedBy("this")
+    private final FrameTimeHistogram flushTimes =
+        new FrameTimeHistogram("stats flush", TimeUnit.MILLISECONDS.toNanos(100));
+
+    /**
+     * Entries written since we last persisted our {@link #flushTimes}.
+     */
+    @GuardedBy("this")
+    private int flushedEntryCount;
+
+    /**
+     * Snapshot of the keystroke counts. Flushes go into the {@link #logFile}, which is compacted
+     * into this file every now and then.
+     */
     private final File backingFile;
 
+    /**
+     * Keystroke count deltas not yet compacted into the {@link #backingFile}.
+     *
+     * @see StatsLog
+     */
+    private final File logFile;
+
+    /**
+     * True once we have verified that our log is fit for appending to. Only accessed while
+     * flushing.
+     */
+    private boolean logChecked;
+
+    /**
+     * Typed characters and events are counted directly in here if we have it. Everything else,
+     * and everything if we don't have it, goes into the {@link #logFile}.
+     */
+    @Nullable
+    private final MappedCounters mappedCounters;
+
+    /**
+     * Key pair transitions are counted in here if we have it, they aren't logged.
+     */
+    @Nullable
+    private final KeyPairCounters keyPairCounters;
+
+    /**
+     * Typed characters and events are also counted per hour, day and month in here if we have it.
+     */
+    @Nullable
+    private final TimeBucketCounters timeBucketCounters;
+
+    /**
+     * Typed words are counted in here if we have it.
+     */
+    @Nullable
+    private final WordCounters wordCounters;
+
+    /**
+     * Held while writing to the {@link #keyPairCounters}, the {@link #timeBucketCounters} or the
+     * {@link #wordCounters}. Apart from the counting thread, only imports write to those, so this
+     * is practically never contended.
+     */
+    private final Object mappedWriteLock = new Object();
+
+    /**
+     * Tap positions relative to key centers are counted in here if we have it. Only written to
+     * from the main thread.
+     */
+    @Nullable
+    private final TouchOffsetCounters touchOffsetCounters;
+
+    /**
+     * The slot of the previous key, or -1 if there is no previous key to pair the next one with.
+     * Only accessed from the thread doing the counting.
+     */
+    private int previousSlot = -1;
+    private long previousTapNanos;
+
+    /**
+     * True while typing into a password field, or into a field that asked not to be learned from.
+     * No words or key pair timings are recorded then. Only accessed from the thread doing the
+     * counting.
+     */
+    private boolean privateInput;
+
+    /**
+     * True if any of our memory mapped counters have changed since we last forced them to disk.
+     */
+    private volatile boolean mappedCountersDirty;
+
+    /**
+     * What's in the snapshot file and the log, kept up to date by our flushes. Only loaded once
+     * somebody wants our {@link #publishedStats}.
+     */
+    @GuardedBy("this")
+    @Nullable
+    private Map<String, Integer> fileCounts;
+
+    /**
+     * Frame time histogram counts, kept next to the keystroke counts in the same format.
+     */
+    private final File frameTimesFile;
+
     @VisibleForTesting
     StatsTracker(File backingFile) {
+        this(backingFile, false);
+    }
+
+    @VisibleForTesting
+    StatsTracker(File backingFile, boolean useMappedCounters) {
+        this(backingFile,
+            new File(backingFile.getParentFile(), FRAME_TIMES_FILE_NAME),
+            useMappedCounters);
+    }
+
+    private StatsTracker(File backingFile, File frameTimesFile, boolean useMappedCounters) {
         this.backingFile = backingFile;
+        this.logFile = getLogFile(backingFile);
+        this.frameTimesFile = frameTimesFile;
+
+        MappedCounters mappedCounters = null;
+        if (useMappedCounters) {
+            File mappedCountersFile = getMappedCountersFile(backingFile);
+            try {
+                mappedCounters = MappedCounters.open(mappedCountersFile);
+            } catch (IOException e) {
+                Timber.w(e, "Mapping counters failed, falling back on the stats log: %s",
+                    mappedCountersFile.getAbsolutePath());
+            }
+        }
+        this.mappedCounters = mappedCounters;
+
+        KeyPairCounters keyPairCounters = null;
+        if (useMappedCounters) {
+            File keyPairsFile = getKeyPairsFile(backingFile);
+            try {
+                keyPairCounters = KeyPairCounters.open(keyPairsFile);
+            } catch (IOException e) {
+                Timber.w(e, "Mapping key pairs failed, not tracking key pairs: %s",
+                    keyPairsFile.getAbsolutePath());
+            }
+        }
+        this.keyPairCounters = keyPairCounters;
+
+        TimeBucketCounters timeBucketCounters = null;
+        if (useMappedCounters) {
+            File timeBucketsFile = getTimeBucketsFile(backingFile);
+            try {
+                timeBucketCounters = TimeBucketCounters.open(timeBucketsFile);
+            } catch (IOException e) {
+                Timber.w(e, "Mapping time buckets failed, not tracking counts over time: %s",
+                    timeBucketsFile.getAbsolutePath());
+            }
+        }
+        this.timeBucketCounters = timeBucketCounters;
+
+        WordCounters wordCounters = null;
+        if (useMappedCounters) {
+            File wordsFile = getWordsFile(backingFile);
+            try {
+                wordCounters = WordCounters.open(wordsFile);
+            } catch (IOException e) {
+                Timber.w(e, "Mapping word counters failed, not counting words: %s",
+                    wordsFile.getAbsolutePath());
+            }
+        }
+        this.wordCounters = wordCounters;
 
-        final Thread flusher = new Thread(() -> {
+        TouchOffsetCounters touchOffsetCounters = null;
+        if (useMappedCounters) {
+            File touchOffsetsFile = getTouchOffsetsFile(backingFile);
             try {
-                Timber.i("Stats flushing thread started");
-                threadFlusher();
-            } catch (InterruptedException e) {
-                Timber.w(e, "Stats flushing thread interrupted");
+                touchOffsetCounters = TouchOffsetCounters.open(touchOffsetsFile);
+            } catch (IOException e) {
+                Timber.w(e, "Mapping touch offsets failed, not tracking tap positions: %s",
+                    touchOffsetsFile.getAbsolutePath());
             }
-        }, "Stats flusher for " + backingFile.getName());
-        flusher.setDaemon(true);
-        flusher.start();
+        }
+        this.touchOffsetCounters = touchOffsetCounters;
     }
 
-    public StatsTracker(Context context) {
-        this(getBackingFile(context));
+    private StatsTracker(Context context) {
+        this(getBackingFile(context), getFrameTimesFile(context), true);
     }
 
-    private static File getBackingFile(Context context) {
+    /**
+     * Get the tracker for this app's stats files. There is only one per process, both the
+     * keyboard and stats imports go through it, so that our memory mapped files have only one
+     * owner.
+     */
+    public static synchronized StatsTracker get(Context context) {
+        if (instance == null) {
+            instance = new StatsTracker(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    static File getBackingFile(Context context) {
         return new File(context.getApplicationInfo().dataDir, "stats.txt");
     }
 
-    private void threadFlusher() throws InterruptedException {
-        //noinspection InfiniteLoopStatement
-        while (true) {
-            synchronized (countQueueLock) {
-                if (countQueue.isEmpty()) {
-                    // Wait for keypresses to show up
-                    countQueueLock.wait();
-                }
-            }
+    static File getLogFile(File backingFile) {
+        return getSiblingFile(backingFile, ".log");
+    }
 
-            // We have been notified that there's something to flush, wait a bit to let more things
-            // accumulate. It's probably good if the wait time is a good bit longer than the time it
-            // takes to flush.
-            //noinspection BusyWait
-            Thread.sleep(3000);
+    static File getMappedCountersFile(File backingFile) {
+        return getSiblingFile(backingFile, ".counters");
+    }
+
+    static File getKeyPairsFile(File backingFile) {
+        return getSiblingFile(backingFile, ".pairs");
+    }
 
+    static File getTimeBucketsFile(File backingFile) {
+        return getSiblingFile(backingFile, ".buckets");
+    }
+
+    static File getWordsFile(File backingFile) {
+        return getSiblingFile(backingFile, ".words");
+    }
+
+    private static File getTouchOffsetsFile(File backingFile) {
+        return getSiblingFile(backingFile, ".touches");
+    }
+
+    private static File getSiblingFile(File backingFile, String suffix) {
+        String name = backingFile.getName();
+        if (name.endsWith(".txt")) {
+            name = name.substring(0, name.length() - ".txt".length());
+        }
+        return new File(backingFile.getParentFile(), name + suffix);
+    }
+
+    /**
+     * @return null for unknown ids
+     */
+    @Nullable
+    static String getKeyName(int keyId) {
+        if (keyId < FIRST_EVENT_KEY_ID) {
+            return Character.toString((char)keyId);
+        }
+
+        int ordinal = keyId - FIRST_EVENT_KEY_ID;
+        if (ordinal < EVENTS.length) {
+            return EVENTS[ordinal].key;
+        }
+        return null;
+    }
+
+    private static File getFrameTimesFile(Context context) {
+        return new File(context.getApplicationInfo().dataDir, FRAME_TIMES_FILE_NAME);
+    }
+
+    /**
+     * Schedule a flush after the flush delay, unless one is already scheduled.
+     * <p>
+     * Flushes are only scheduled when there's something to flush, so while idle we don't wake
+     * anything up. The flush delay lets things accumulate, it's probably good if it's a good bit
+     * longer than the time it takes to flush.
+     */
+    private void scheduleFlush() {
+        if (!flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        executor.schedule(() -> {
+            // Clear first, anything counted during this flush should schedule another one
+            flushScheduled.set(false);
             flush();
+        }, flushDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Flush on a background thread as soon as possible. Call this when we might get killed soon,
+     * like when the keyboard is hidden or when we're asked to trim memory.
+     */
+    public void requestFlush() {
+        if (!flushRequested.compareAndSet(false, true)) {
+            return;
         }
+
+        executor.execute(() -> {
+            flushRequested.set(false);
+            flush();
+        });
     }
 
-    @VisibleForTesting
-    void flush() {
-        long t0 = System.currentTimeMillis();
-        List<String> toFlushNow;
+    /**
+     * Write everything counted so far to disk. Does file I/O, don't call this on the main thread.
+     */
+    synchronized void flush() {
+        long t0 = System.nanoTime();
+
+        boolean mappedCountsChanged = mappedCountersDirty;
+        if (mappedCountersDirty) {
+            // Clear before forcing, so that anything counted while forcing gets forced next time
+            mappedCountersDirty = false;
+            if (mappedCounters != null) {
+                mappedCounters.force();
+            }
+            if (keyPairCounters != null) {
+                keyPairCounters.force();
+            }
+            if (timeBucketCounters != null) {
+                timeBucketCounters.force();
+            }
+            if (wordCounters != null) {
+                wordCounters.force();
+            }
+            if (touchOffsetCounters != null) {
+                touchOffsetCounters.force();
+            }
+        }
+
+        Map<String, Integer> toFlushNow = new HashMap<>();
+        drainKeyQueue(toFlushNow);
+
+        // Only the dirty counters are persisted
+        for (int i = 0; i < dirtyCharCount; i++) {
+            char character = dirtyChars[i];
+            toFlushNow.put(Character.toString(character), charDeltas[character]);
+            charDeltas[character] = 0;
+        }
+        dirtyCharCount = 0;
+
+        for (Event event : EVENTS) {
+            if (eventDeltas[event.ordinal()] > 0) {
+                toFlushNow.put(event.key, eventDeltas[event.ordinal()]);
+                eventDeltas[event.ordinal()] = 0;
+            }
+        }
+
+        int dropped = droppedKeyCount.getAndSet(0);
+        if (dropped > 0) {
+            Timber.w("Key queue overflowed, %d keys not counted", dropped);
+        }
+
+        Map<String, Integer> frameTimesToFlushNow;
         synchronized (countQueueLock) {
-            toFlushNow = new ArrayList<>(countQueue);
+            for (String character : countQueue) {
+                Integer count = toFlushNow.get(character);
+                toFlushNow.put(character, count == null ? 1 : count + 1);
+            }
             countQueue.clear();
+
+            frameTimesToFlushNow = new HashMap<>(frameTimesQueue);
+            frameTimesQueue.clear();
+        }
+
+        if (!frameTimesToFlushNow.isEmpty()) {
+            // We're rewriting the frame times file anyway, tag along. Doing this on every flush
+            // would mean rewriting that file every time.
+            flushTimes.drainInto(frameTimesToFlushNow);
+            if (flushedEntryCount > 0) {
+                frameTimesToFlushNow.put("stats flush entries", flushedEntryCount);
+                flushedEntryCount = 0;
+            }
+        }
+
+        appendToLog(toFlushNow);
+        addCountsSynchronously(frameTimesFile, frameTimesToFlushNow);
+
+        if (mappedCountsChanged || !toFlushNow.isEmpty()) {
+            publishStats();
         }
 
-        countCharactersSynchronously(toFlushNow);
-        long t1 = System.currentTimeMillis();
-        long dtMillis = t1 - t0;
-        Timber.v("Flushed %d stats entries in %dms", toFlushNow.size(), dtMillis);
+        long dtNanos = System.nanoTime() - t0;
+        int entryCount = toFlushNow.size() + frameTimesToFlushNow.size();
+        if (entryCount > 0) {
+            flushTimes.record(dtNanos);
+            flushedEntryCount += entryCount;
+        }
+        Timber.v("Flushed %d stats entries in %dms",
+            entryCount, TimeUnit.NANOSECONDS.toMillis(dtNanos));
     }
 
+    /**
+     * Move everything from the {@link #keyQueue} into our delta counters.
+     *
+     * @param otherDeltas For characters without a {@link #charDeltas} slot
+     */
+    @GuardedBy("this")
+    private void drainKeyQueue(Map<String, Integer> otherDeltas) {
+        int count;
+        while ((count = keyQueue.drainTo(drainedKeys)) > 0) {
+            for (int i = 0; i < count; i++) {
+                int keyId = drainedKeys[i];
+                if (keyId < DENSE_CHAR_LIMIT) {
+                    if (charDeltas[keyId]++ == 0) {
+                        dirtyChars[dirtyCharCount++] = (char)keyId;
+                    }
+                    continue;
+                }
+
+                if (keyId >= FIRST_EVENT_KEY_ID) {
+                    eventDeltas[keyId - FIRST_EVENT_KEY_ID]++;
+                    continue;
+                }
+
+                String name = Character.toString((char)keyId);
+                Integer oldCount = otherDeltas.get(name);
+                otherDeltas.put(name, oldCount == null ? 1 : oldCount + 1);
+            }
+        }
+    }
+
+    /**
+     * How long to let counts accumulate before writing them to disk. Longer delays mean fewer
+     * file rewrites.
+     */
+    public void setFlushDelayMs(long flushDelayMs) {
+        this.flushDelayMs = flushDelayMs;
+    }
+
+    /**
+     * Count one typed character. Never allocates, and only blocks if some import happens to be
+     * writing at the same time.
+     * <p>
+     * This and {@link #countEvent(Event)} must be called from one thread at a time, we do that
+     * from the input connection executor thread.
+     */
+    public void countCharacter(char character) {
+        countKey(character);
+        countInTimeBuckets(KeySlots.getSlot(character));
+
+        if (privateInput || wordCounters == null) {
+            return;
+        }
+        boolean counted;
+        synchronized (mappedWriteLock) {
+            counted = wordCounters.onCharacter(character);
+        }
+        if (counted) {
+            mappedCountersDirty = true;
+            scheduleFlush();
+        }
+    }
+
+    public void countEvent(Event event) {
+        countKey(FIRST_EVENT_KEY_ID + event.ordinal());
+        countInTimeBuckets(KeySlots.getSlot(event));
+
+        if (privateInput || wordCounters == null) {
+            return;
+        }
+        if (event == Event.BACKSPACE) {
+            wordCounters.onBackspace();
+            return;
+        }
+        boolean counted;
+        synchronized (mappedWriteLock) {
+            counted = wordCounters.endWord();
+        }
+        if (counted) {
+            mappedCountersDirty = true;
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Count where a tap landed relative to the center of the key it hit. Never blocks and never
+     * allocates.
+     * <p>
+     * Unlike the other counting methods, this one must be called from the main thread.
+     *
+     * @param dxMm How far right of the key center the tap was
+     * @param dyMm How far below the key center the tap was
+     */
+    public void countTouchOffset(char key, float dxMm, float dyMm) {
+        if (touchOffsetCounters == null) {
+            return;
+        }
+
+        touchOffsetCounters.record(KeySlots.getSlot(key), dxMm, dyMm);
+        mappedCountersDirty = true;
+        scheduleFlush();
+    }
+
+    /**
+     * Forget about any partially typed word. Call this when the user might have moved on to some
+     * other text without us seeing the word end.
+     * <p>
+     * Must be called from the same thread as the other counting methods.
+     */
+    public void discardWord() {
+        if (wordCounters != null) {
+            wordCounters.discardWord();
+        }
+    }
+
+    /**
+     * Call this when starting input into a new field.
+     * <p>
+     * Must be called from the same thread as the other counting methods.
+     *
+     * @param privateInput True for password fields and fields that have asked not to be learned
+     *                     from. No words or key pair timings are recorded for those.
+     */
+    public void setPrivateInput(boolean privateInput) {
+        this.privateInput = privateInput;
+
+        // Don't let anything typed into one field continue in the next one
+        discardWord();
+        previousSlot = -1;
+    }
+
+    private void countInTimeBuckets(int slot) {
+        if (timeBucketCounters == null) {
+            return;
+        }
+
+        synchronized (mappedWriteLock) {
+            timeBucketCounters.increment(slot, System.currentTimeMillis());
+        }
+        mappedCountersDirty = true;
+        scheduleFlush();
+    }
+
+    /**
+     * Count one typed character, and its transition from the previous key.
+     *
+     * @param tapTimeNanos When the key was tapped, from {@link System#nanoTime()}
+     */
+    public void countCharacter(char character, long tapTimeNanos) {
+        countCharacter(character);
+        countTransition(KeySlots.getSlot(character), tapTimeNanos);
+    }
+
+    /**
+     * Count one event, and its transition from the previous key. Events without a key of their
+     * own end the current sequence of keys.
+     *
+     * @param tapTimeNanos When the event's key was tapped, from {@link System#nanoTime()}
+     */
+    public void countEvent(Event event, long tapTimeNanos) {
+        countEvent(event);
+
+        if (event == Event.EDITOR_ACTION) {
+            previousSlot = -1;
+            return;
+        }
+        countTransition(KeySlots.getSlot(event), tapTimeNanos);
+    }
+
+    private void countTransition(int slot, long tapTimeNanos) {
+        if (privateInput || keyPairCounters == null) {
+            return;
+        }
+
+        if (previousSlot >= 0) {
+            long intervalMs = TimeUnit.NANOSECONDS.toMillis(tapTimeNanos - previousTapNanos);
+            boolean recorded;
+            synchronized (mappedWriteLock) {
+                recorded = keyPairCounters.record(previousSlot, slot, intervalMs);
+            }
+            if (recorded) {
+                mappedCountersDirty = true;
+                scheduleFlush();
+            }
+        }
+
+        previousSlot = slot;
+        previousTapNanos = tapTimeNanos;
+    }
+
+    /**
+     * Add an imported count for some period. Can be called from any thread.
+     *
+     * @return false if we aren't tracking counts over time, or if the period is too old to fit
+     */
+    boolean importTimeBucketCount(int level, int periodId, int slot, int count) {
+        if (timeBucketCounters == null) {
+            return false;
+        }
+
+        synchronized (mappedWriteLock) {
+            return timeBucketCounters.add(level, periodId, slot, count);
+        }
+    }
+
+    /**
+     * Add an imported count for some key pair interval bucket. Can be called from any thread.
+     *
+     * @return false if we aren't tracking key pairs
+     */
+    boolean importPairCount(int fromSlot, int toSlot, int bucket, int count) {
+        if (keyPairCounters == null) {
+            return false;
+        }
+
+        synchronized (mappedWriteLock) {
+            keyPairCounters.add(fromSlot, toSlot, bucket, count);
+        }
+        return true;
+    }
+
+    /**
+     * Add an imported count for some word. Can be called from any thread.
+     *
+     * @return false if we aren't counting words, or if the word can't be counted
+     */
+    boolean importWordCount(String word, int count) {
+        if (wordCounters == null) {
+            return false;
+        }
+
+        synchronized (mappedWriteLock) {
+            return wordCounters.add(word, count);
+        }
+    }
+
+    private void countKey(int keyId) {
+        if (mappedCounters != null && mappedCounters.increment(keyId)) {
+            mappedCountersDirty = true;
+            scheduleFlush();
+            return;
+        }
+
+        if (!keyQueue.offer(keyId)) {
+            droppedKeyCount.incrementAndGet();
+        }
+
+        // Once per batch we take the executor's lock for scheduling, per key we only do a
+        // compare-and-set
+        if (keyQueue.size() >= KEY_QUEUE_FLUSH_THRESHOLD) {
+            requestFlush();
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Count anything by name. Prefer {@link #countCharacter(char)} or
+     * {@link #countEvent(Event)} where possible, they don't allocate.
+     */
     public void countCharacter(String character) {
         synchronized (countQueueLock) {
             countQueue.add(character);
-            countQueueLock.notifyAll();
         }
+        scheduleFlush();
+    }
+
+    /**
+     * Add frame time histogram counts to what we have on file.
+     *
+     * @see com.gmail.walles.johan.exactype.util.FrameTimeTracker#drain()
+     */
+    public void countFrameTimes(Map<String, Integer> counts) {
+        if (counts.isEmpty()) {
+            return;
+        }
+
+        synchronized (countQueueLock) {
+            for (Map.Entry<String, Integer> entry: counts.entrySet()) {
+                Integer count = frameTimesQueue.get(entry.getKey());
+                if (count == null) {
+                    count = 0;
+                }
+                frameTimesQueue.put(entry.getKey(), count + entry.getValue());
+            }
+        }
+        scheduleFlush();
     }
 
-    private void countCharactersSynchronously(Collection<String> characters) {
-        if (characters.isEmpty()) {
+    private static void addCountsSynchronously(File file, Map<String, Integer> deltas) {
+        if (deltas.isEmpty()) {
             return;
         }
 
         Map<String, Integer> counts;
         try {
-            counts = getCounts(backingFile);
+            counts = readSnapshot(file).counts;
         } catch (IOException e) {
-            Timber.w(e,
-                "Failed reading stats from file: %s",
-                backingFile.getAbsolutePath());
+            Timber.w(e, "Failed reading counts from file: %s", file.getAbsolutePath());
             return;
         }
 
-        // Bump the counts
-        for (String character: characters) {
-            Integer count = counts.get(character);
+        addCounts(counts, deltas);
+
+        try {
+            writeCountsToFile(file, 0, counts);
+        } catch (IOException e) {
+            Timber.w(e, "Failed writing counts to file: %s", file.getAbsolutePath());
+        }
+    }
+
+    private static void addCounts(Map<String, Integer> counts, Map<String, Integer> deltas) {
+        for (Map.Entry<String, Integer> delta: deltas.entrySet()) {
+            Integer count = counts.get(delta.getKey());
             if (count == null) {
                 count = 0;
             }
-            counts.put(character, count + 1);
+            counts.put(delta.getKey(), count + delta.getValue());
+        }
+    }
+
+    private void appendToLog(Map<String, Integer> deltas) {
+        if (deltas.isEmpty()) {
+            return;
         }
 
         try {
-            writeCountsToFile(counts);
+            prepareLog();
+            StatsLog.append(logFile, deltas);
         } catch (IOException e) {
-            Timber.w(e,
-                "Failed writing stats to file: %s",
-                backingFile.getAbsolutePath());
-            //noinspection UnnecessaryReturnStatement
+            Timber.w(e, "Failed appending stats to log: %s", logFile.getAbsolutePath());
+
+            // Re-validate before appending anything more
+            logChecked = false;
+
+            // Unknown what made it to disk, re-read before publishing again
+            fileCounts = null;
+            return;
+        }
+
+        if (fileCounts != null) {
+            addCounts(fileCounts, deltas);
+        }
+
+        compactIfLarge();
+    }
+
+    /**
+     * Add imported key counts to our log. Does file I/O, don't call this on the main thread.
+     */
+    synchronized void importKeyCounts(Map<String, Integer> counts) throws IOException {
+        try {
+            prepareLog();
+            StatsLog.append(logFile, counts);
+        } catch (IOException e) {
+            // Re-validate and re-read next time, unknown what made it to disk
+            logChecked = false;
+            fileCounts = null;
+            throw e;
+        }
+
+        if (fileCounts != null) {
+            addCounts(fileCounts, counts);
+        }
+
+        compactIfLarge();
+    }
+
+    /**
+     * Get imported counts to disk, and to whoever is watching our stats. Does file I/O, don't call
+     * this on the main thread.
+     */
+    synchronized void onImportDone() {
+        // Imports can have changed any of our mapped files
+        mappedCountersDirty = true;
+        flush();
+    }
+
+    @GuardedBy("this")
+    private void compactIfLarge() {
+        if (logFile.length() <= COMPACT_LOG_BYTES) {
+            return;
+        }
+
+        try {
+            compact();
+        } catch (IOException e) {
+            Timber.w(e, "Failed compacting stats log: %s", logFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Make sure our log has a valid header and no torn tail before we append to it.
+     */
+    private void prepareLog() throws IOException {
+        if (logChecked) {
+            return;
+        }
+
+        Snapshot snapshot = readSnapshot(backingFile);
+        StatsLog.Contents log = StatsLog.read(logFile);
+        if (log.generation <= snapshot.logGeneration) {
+            // No log, a broken header, or a log that has already been compacted into the snapshot
+            StatsLog.reset(logFile, snapshot.logGeneration + 1);
+        } else if (log.validLength < logFile.length()) {
+            StatsLog.truncate(logFile, log.validLength);
+        }
+
+        logChecked = true;
+    }
+
+    /**
+     * Move everything from the log into the snapshot file, and start over with an empty log.
+     */
+    @VisibleForTesting
+    synchronized void compact() throws IOException {
+        long t0 = System.currentTimeMillis();
+
+        Snapshot snapshot = readSnapshot(backingFile);
+        StatsLog.Contents log = StatsLog.read(logFile);
+        if (log.generation <= snapshot.logGeneration) {
+            // Nothing new in the log
             return;
         }
+
+        addCounts(snapshot.counts, log.deltas);
+
+        // If we die between these two, the log generation in the snapshot will make sure the
+        // log contents don't get counted twice
+        writeCountsToFile(backingFile, log.generation, snapshot.counts);
+        StatsLog.reset(logFile, log.generation + 1);
+        logChecked = true;
+
+        Timber.i("Compacted %d bytes of stats log in %dms",
+            log.validLength, System.currentTimeMillis() - t0);
+    }
+
+    /**
+     * Read all stats from disk. Does file I/O, don't call this on the main thread.
+     * <p>
+     * Parts that can't be read are logged and left empty.
+     */
+    public static Stats readStats(Context context) {
+        return readStats(getBackingFile(context), System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    static Stats readStats(File backingFile, long nowMillis) {
+        long collectedNanos = System.nanoTime();
+
+        Map<String, Integer> counts = new HashMap<>();
+        try {
+            counts = getCounts(backingFile);
+        } catch (IOException e) {
+            Timber.w(e, "Failed to read key stats");
+        }
+
+        Map<Period, Map<String, Integer>> periodCounts = new EnumMap<>(Period.class);
+        for (Period period : Period.values()) {
+            try {
+                periodCounts.put(period, getCounts(backingFile, period, nowMillis));
+            } catch (IOException e) {
+                Timber.w(e, "Failed to read key stats for %s", period);
+                periodCounts.put(period, new HashMap<>());
+            }
+        }
+
+        List<KeyPair> keyPairs = new ArrayList<>();
+        try {
+            keyPairs = getKeyPairs(backingFile);
+        } catch (IOException e) {
+            Timber.w(e, "Failed to read key pair stats");
+        }
+
+        Map<String, Integer> topWords = new HashMap<>();
+        try {
+            topWords = getTopWords(backingFile);
+        } catch (IOException e) {
+            Timber.w(e, "Failed to read word stats");
+        }
+
+        return new Stats(collectedNanos, counts, periodCounts, keyPairs, topWords);
+    }
+
+    /**
+     * Stats as of the latest flush by a {@link StatsTracker} in this process. Observe this to
+     * follow along as keys get typed, without re-reading any files.
+     * <p>
+     * Nothing gets published unless the keyboard runs in the same process as the observer.
+     */
+    public static LiveData<Stats> getPublishedStats() {
+        return publishedStats;
     }
 
-    public static Map<String, Integer> getCounts(Context context) throws IOException {
-        return getCounts(getBackingFile(context));
+    @GuardedBy("this")
+    private void publishStats() {
+        if (!publishedStats.hasActiveObservers()) {
+            // Nobody is looking, don't bother
+            return;
+        }
+
+        try {
+            publishedStats.postValue(collectStats(System.currentTimeMillis()));
+        } catch (IOException e) {
+            Timber.w(e, "Failed to collect stats for publishing");
+        }
     }
 
+    /**
+     * Like {@link #readStats(File, long)}, but from memory. Only the snapshot file and the log get
+     * read, and only the first time.
+     */
+    @VisibleForTesting
+    synchronized Stats collectStats(long nowMillis) throws IOException {
+        long collectedNanos = System.nanoTime();
+
+        if (fileCounts == null) {
+            fileCounts = getFileCounts(backingFile);
+        }
+        Map<String, Integer> counts = new HashMap<>(fileCounts);
+        if (mappedCounters != null) {
+            addMappedCounts(counts, mappedCounters.read());
+        }
+
+        Map<Period, Map<String, Integer>> periodCounts = new EnumMap<>(Period.class);
+        for (Period period : Period.values()) {
+            if (timeBucketCounters == null) {
+                periodCounts.put(period, new HashMap<>());
+                continue;
+            }
+
+            int[] range = getPeriodRange(period, nowMillis);
+            periodCounts.put(
+                period, toSlotNames(timeBucketCounters.sum(range[0], range[1], range[2])));
+        }
+
+        List<KeyPair> keyPairs = new ArrayList<>();
+        if (keyPairCounters != null) {
+            keyPairs = toKeyPairs(keyPairCounters.read());
+        }
+
+        Map<String, Integer> topWords = new HashMap<>();
+        if (wordCounters != null) {
+            topWords = wordCounters.readTopWords();
+        }
+
+        return new Stats(collectedNanos, counts, periodCounts, keyPairs, topWords);
+    }
+
+    /**
+     * Get the counts from a snapshot file plus its log.
+     */
     @VisibleForTesting
     static Map<String, Integer> getCounts(File backingFile) throws IOException {
-        Map<String, Integer> returnMe = new HashMap<>();
-        try (FileReader fileReader = new FileReader(backingFile);
-             BufferedReader in = new BufferedReader(fileReader)) {
-            while(true) {
-                String line = in.readLine();
-                if (line == null) {
-                    break;
-                }
+        Map<String, Integer> counts = getFileCounts(backingFile);
+        addMappedCounts(counts, MappedCounters.read(getMappedCountersFile(backingFile)));
+        return counts;
+    }
 
-                final String COMPLAINT = "Line not on 'x: 12345' format: ";
-                if (line.length() < "x: 5".length()) {
-                    // Line not long enough to contain what we want
-                    throw new IOException(COMPLAINT + line);
-                }
+    /**
+     * Get the counts from a snapshot file plus its log, without any mapped counters.
+     */
+    private static Map<String, Integer> getFileCounts(File backingFile) throws IOException {
+        Snapshot snapshot = readSnapshot(backingFile);
 
-                int lastColonIndex = line.lastIndexOf(':');
-                if (lastColonIndex == -1) {
-                    // No colon found
-                    throw new IOException(COMPLAINT + line);
-                }
-                if (lastColonIndex == 0) {
-                    // Colon in first position
-                    throw new IOException(COMPLAINT + line);
-                }
-                if (line.length() < (lastColonIndex + 2)) {
-                    // No room for any number
-                    throw new IOException(COMPLAINT + line);
-                }
+        StatsLog.Contents log = StatsLog.read(getLogFile(backingFile));
+        if (log.generation > snapshot.logGeneration) {
+            addCounts(snapshot.counts, log.deltas);
+        }
+
+        return snapshot.counts;
+    }
 
-                String character = line.substring(0, lastColonIndex);
+    private static void addMappedCounts(
+        Map<String, Integer> counts, Map<Integer, Long> mappedCounts)
+    {
+        for (Map.Entry<Integer, Long> entry : mappedCounts.entrySet()) {
+            String name = getKeyName(entry.getKey());
+            if (name == null) {
+                continue;
+            }
 
-                if (line.charAt(lastColonIndex + 1) != ' ') {
-                    // No ": " after the word
-                    throw new IOException(COMPLAINT + line);
-                }
+            Integer count = counts.get(name);
+            counts.put(name, addSaturated(count == null ? 0 : count, entry.getValue()));
+        }
+    }
 
-                int count;
-                try {
-                    count = Integer.parseInt(line.substring(lastColonIndex + 2));
-                } catch (NumberFormatException e) {
-                    throw new IOException(COMPLAINT + line, e);
-                }
+    /**
+     * Mapped counters are longs, but our counts are ints. Stop at the largest int rather than
+     * wrapping around into negative counts.
+     */
+    @VisibleForTesting
+    static int addSaturated(int count, long delta) {
+        if (delta > Integer.MAX_VALUE - (long)count) {
+            return Integer.MAX_VALUE;
+        }
+        return (int)(count + delta);
+    }
+
+    /**
+     * Get counts for a recent time period. Unlike the all time counts, these are by key slot, so
+     * upper and lower case letters are counted together and rare characters as "other".
+     */
+    @VisibleForTesting
+    static Map<String, Integer> getCounts(File backingFile, Period period, long nowMillis)
+        throws IOException
+    {
+        int[] range = getPeriodRange(period, nowMillis);
+        return toSlotNames(TimeBucketCounters.sum(
+            getTimeBucketsFile(backingFile), range[0], range[1], range[2]));
+    }
 
-                returnMe.put(character, count);
+    /**
+     * Which time buckets make up a period.
+     *
+     * @return Time bucket level, first period id and last period id
+     */
+    private static int[] getPeriodRange(Period period, long nowMillis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(nowMillis);
+
+        switch (period) {
+            case LAST_24_HOURS: {
+                int hour = TimeBucketCounters.getPeriodId(TimeBucketCounters.HOURS, calendar);
+                return new int[] { TimeBucketCounters.HOURS, hour - 23, hour };
+            }
+            case LAST_7_DAYS: {
+                int day = TimeBucketCounters.getPeriodId(TimeBucketCounters.DAYS, calendar);
+                return new int[] { TimeBucketCounters.DAYS, day - 6, day };
+            }
+            case THIS_MONTH: {
+                int month = TimeBucketCounters.getPeriodId(TimeBucketCounters.MONTHS, calendar);
+                return new int[] { TimeBucketCounters.MONTHS, month, month };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown period: " + period);
+        }
+    }
+
+    private static Map<String, Integer> toSlotNames(int[] slotCounts) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int slot = 0; slot < slotCounts.length; slot++) {
+            if (slotCounts[slot] > 0) {
+                counts.put(KeySlots.getName(slot), slotCounts[slot]);
             }
+        }
+        return counts;
+    }
+
+    /**
+     * Get the most common words with their approximate counts.
+     */
+    @VisibleForTesting
+    static Map<String, Integer> getTopWords(File backingFile) throws IOException {
+        return WordCounters.readTopWords(getWordsFile(backingFile));
+    }
+
+    /**
+     * Get all key pairs that have been typed at least once, in no particular order.
+     */
+    @VisibleForTesting
+    static List<KeyPair> getKeyPairs(File backingFile) throws IOException {
+        return toKeyPairs(KeyPairCounters.read(getKeyPairsFile(backingFile)));
+    }
+
+    private static List<KeyPair> toKeyPairs(List<KeyPairCounters.Pair> pairs) {
+        List<KeyPair> keyPairs = new ArrayList<>(pairs.size());
+        for (KeyPairCounters.Pair pair : pairs) {
+            keyPairs.add(new KeyPair(
+                KeySlots.getName(pair.fromSlot),
+                KeySlots.getName(pair.toSlot),
+                pair.count,
+                pair.getMedianMs()));
+        }
+        return keyPairs;
+    }
+
+    private static Snapshot readSnapshot(File backingFile) throws IOException {
+        Map<String, Integer> returnMe = new HashMap<>();
+        CountsFileParser parser = new CountsFileParser();
+        try (FileReader fileReader = new FileReader(backingFile)) {
+            parser.parse(fileReader, returnMe);
         } catch (FileNotFoundException e) {
             // This happens if somebody asks for stats before having pressed any key
             Timber.w(e,
                 "Stats file not found, pretending it was empty: %s",
                 backingFile.getAbsolutePath());
-            return returnMe;
+            return new Snapshot(0, returnMe);
         }
 
-        return returnMe;
+        if (parser.getBadLineCount() > 0) {
+            Timber.w("Skipped %d corrupt lines in %s",
+                parser.getBadLineCount(), backingFile.getAbsolutePath());
+        }
+
+        return new Snapshot(parser.getLogGeneration(), returnMe);
     }
 
-    private void writeCountsToFile(Map<String, Integer> counts) throws IOException {
-        File tempFile = new File(backingFile.getAbsolutePath() + ".tmp");
+    /**
+     * @param logGeneration The generation of the last log included in the counts, or 0 for files
+     *                      without a log
+     */
+    private static void writeCountsToFile(
+        File file, long logGeneration, Map<String, Integer> counts) throws IOException
+    {
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
         try (FileWriter fileWriter = new FileWriter(tempFile);
              PrintWriter out = new PrintWriter(fileWriter)) {
+            out.print(CountsFileParser.FORMAT_HEADER);
+            out.println(CountsFileParser.FORMAT_VERSION);
+            if (logGeneration > 0) {
+                out.print(CountsFileParser.LOG_GENERATION_HEADER);
+                out.println(logGeneration);
+            }
             for (Map.Entry<String, Integer> entry: counts.entrySet()) {
                 out.print(entry.getKey());
                 out.print(": ");
@@ -216,9 +1353,9 @@ public class StatsTracker {
             }
         }
 
-        if (!tempFile.renameTo(backingFile)) {
+        if (!tempFile.renameTo(file)) {
             throw new IOException(
-                "Rename failed: " + tempFile.getAbsolutePath() + "->" + backingFile.getAbsolutePath());
+                "Rename failed: " + tempFile.getAbsolutePath() + "->" + file.getAbsolutePath());
         }
     }
 }
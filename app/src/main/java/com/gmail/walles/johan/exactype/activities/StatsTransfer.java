@@ -0,0 +1,330 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import android.content.Context;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.annotation.VisibleForTesting;
+import timber.log.Timber;
+
+/**
+ * Export and import of all stats, for moving them between devices.
+ * <p>
+ * Exports are in the same "key: count" format as our snapshot files, with the kind of count as a
+ * prefix on each key:
+ * <ul>
+ * <li>{@code key <name>: <count>}
+ * <li>{@code hour|day|month <period id> <slot name>: <count>}
+ * <li>{@code pair <interval limit ms> <slot name> → <slot name>: <count>}
+ * <li>{@code word <word>: <count>}
+ * </ul>
+ * The same key can occur more than once, importing adds everything up. That way both directions
+ * stream line by line, with memory use independent of how much there is.
+ * <p>
+ * Touch offsets are not included, they describe how someone hits the keys on one particular
+ * screen.
+ * <p>
+ * Both directions do file I/O, don't call them on the main thread. Imports go through the same
+ * {@link StatsTracker} the keyboard counts into, so that our stats files only have one writer.
+ */
+public class StatsTransfer {
+    private static final String EXPORT_HEADER = "# exactype stats export";
+
+    private static final String KEY_PREFIX = "key ";
+
+    /**
+     * Indexed by time bucket level.
+     */
+    private static final String[] LEVEL_PREFIXES = { "hour ", "day ", "month " };
+
+    private static final String PAIR_PREFIX = "pair ";
+    private static final String PAIR_SEPARATOR = " → ";
+    private static final String WORD_PREFIX = "word ";
+
+    /**
+     * Imported key counts go into the stats log in batches of this many keys.
+     */
+    private static final int KEY_BATCH_SIZE = 256;
+
+    private StatsTransfer() {
+        // Only static methods in here
+    }
+
+    public static void exportStats(Context context, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        exportStats(StatsTracker.getBackingFile(context), writer);
+        writer.flush();
+    }
+
+    @VisibleForTesting
+    static void exportStats(File backingFile, Writer out) throws IOException {
+        out.write(CountsFileParser.FORMAT_HEADER + CountsFileParser.FORMAT_VERSION + "\n");
+        out.write(EXPORT_HEADER + "\n");
+
+        exportKeyCounts(backingFile, out);
+
+        for (TimeBucketCounters.Bucket bucket
+            : TimeBucketCounters.readBuckets(StatsTracker.getTimeBucketsFile(backingFile)))
+        {
+            String prefix = LEVEL_PREFIXES[bucket.level] + bucket.periodId + " ";
+            for (int slot = 0; slot < bucket.counts.length; slot++) {
+                writeCount(out, prefix + KeySlots.getName(slot), bucket.counts[slot]);
+            }
+        }
+
+        for (KeyPairCounters.Pair pair
+            : KeyPairCounters.read(StatsTracker.getKeyPairsFile(backingFile)))
+        {
+            String pairName =
+                KeySlots.getName(pair.fromSlot) + PAIR_SEPARATOR + KeySlots.getName(pair.toSlot);
+            for (int bucket = 0; bucket < pair.buckets.length; bucket++) {
+                writeCount(out,
+                    PAIR_PREFIX + KeyPairCounters.BUCKET_LIMITS_MS[bucket] + " " + pairName,
+                    pair.buckets[bucket]);
+            }
+        }
+
+        for (Map.Entry<String, Integer> entry
+            : WordCounters.readTopWords(StatsTracker.getWordsFile(backingFile)).entrySet())
+        {
+            writeCount(out, WORD_PREFIX + entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static void exportKeyCounts(File backingFile, Writer out) throws IOException {
+        // Stream the snapshot file straight through, it can be large
+        CountsFileParser parser = new CountsFileParser();
+        try (Reader reader = new BufferedReader(new FileReader(backingFile))) {
+            parser.parse(reader, (key, count) -> writeCount(out, KEY_PREFIX + key, count));
+        } catch (FileNotFoundException e) {
+            Timber.i("No stats snapshot to export: %s", backingFile.getAbsolutePath());
+        }
+
+        // The log gets compacted into the snapshot before it grows large
+        StatsLog.Contents log = StatsLog.read(StatsTracker.getLogFile(backingFile));
+        if (log.generation > parser.getLogGeneration()) {
+            for (Map.Entry<String, Integer> entry : log.deltas.entrySet()) {
+                writeCount(out, KEY_PREFIX + entry.getKey(), entry.getValue());
+            }
+        }
+
+        Map<Integer, Long> mappedCounts =
+            MappedCounters.read(StatsTracker.getMappedCountersFile(backingFile));
+        for (Map.Entry<Integer, Long> entry : mappedCounts.entrySet()) {
+            String name = StatsTracker.getKeyName(entry.getKey());
+            if (name == null) {
+                continue;
+            }
+            writeCount(out, KEY_PREFIX + name, entry.getValue());
+        }
+    }
+
+    private static void writeCount(Writer out, String key, long count) throws IOException {
+        if (count <= 0) {
+            return;
+        }
+
+        out.write(key);
+        out.write(": ");
+        out.write(Long.toString(count));
+        out.write('\n');
+    }
+
+    /**
+     * Add the counts from an export to our stats.
+     *
+     * @return How many counts were imported
+     * @throws IOException on read failures, or if there were no stats to import
+     */
+    public static int importStats(Context context, InputStream in) throws IOException {
+        Reader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        return importStats(StatsTracker.get(context), reader);
+    }
+
+    @VisibleForTesting
+    static int importStats(StatsTracker tracker, Reader in) throws IOException {
+        Importer importer = new Importer(tracker);
+        CountsFileParser parser = new CountsFileParser();
+        try {
+            parser.parse(in, importer::onCount);
+            importer.finish();
+        } finally {
+            tracker.onImportDone();
+        }
+
+        int skipped = importer.skippedCount + parser.getBadLineCount();
+        if (skipped > 0) {
+            Timber.w("Skipped %d lines while importing stats", skipped);
+        }
+        if (importer.importedCount == 0) {
+            throw new IOException("No stats found to import");
+        }
+
+        Timber.i("Imported %d stats counts", importer.importedCount);
+        return importer.importedCount;
+    }
+
+    /**
+     * Sends each imported count where it belongs in the {@link StatsTracker}.
+     */
+    private static class Importer {
+        private final StatsTracker tracker;
+
+        private final Map<String, Integer> keyBatch = new HashMap<>();
+
+        int importedCount;
+        int skippedCount;
+
+        Importer(StatsTracker tracker) {
+            this.tracker = tracker;
+        }
+
+        void onCount(String key, long count) throws IOException {
+            // We export what our long counters say, but most counts are stored as ints
+            int intCount = (int)Math.min(count, Integer.MAX_VALUE);
+
+            boolean imported;
+            if (key.startsWith(KEY_PREFIX)) {
+                imported = importKeyCount(key.substring(KEY_PREFIX.length()), intCount);
+            } else if (key.startsWith(PAIR_PREFIX)) {
+                imported = importPairCount(key.substring(PAIR_PREFIX.length()), intCount);
+            } else if (key.startsWith(WORD_PREFIX)) {
+                imported = tracker.importWordCount(key.substring(WORD_PREFIX.length()), intCount);
+            } else {
+                imported = importTimeBucketCount(key, intCount);
+            }
+
+            if (imported) {
+                importedCount++;
+            } else {
+                skippedCount++;
+            }
+        }
+
+        private boolean importKeyCount(String name, int count) throws IOException {
+            if (name.isEmpty()) {
+                return false;
+            }
+
+            Integer oldCount = keyBatch.get(name);
+            long newCount = oldCount == null ? count : (long)oldCount + count;
+            keyBatch.put(name, (int)Math.min(newCount, Integer.MAX_VALUE));
+            if (keyBatch.size() >= KEY_BATCH_SIZE) {
+                appendKeyBatch();
+            }
+            return true;
+        }
+
+        private void appendKeyBatch() throws IOException {
+            if (keyBatch.isEmpty()) {
+                return;
+            }
+
+            tracker.importKeyCounts(keyBatch);
+            keyBatch.clear();
+        }
+
+        private boolean importTimeBucketCount(String key, int count) {
+            for (int level = 0; level < LEVEL_PREFIXES.length; level++) {
+                String prefix = LEVEL_PREFIXES[level];
+                if (!key.startsWith(prefix)) {
+                    continue;
+                }
+
+                // Period id, space, slot name
+                int space = key.indexOf(' ', prefix.length());
+                if (space < 0) {
+                    return false;
+                }
+                int slot = KeySlots.getSlot(key.substring(space + 1));
+                if (slot < 0) {
+                    return false;
+                }
+                int periodId;
+                try {
+                    periodId = Integer.parseInt(key.substring(prefix.length(), space));
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+
+                return tracker.importTimeBucketCount(level, periodId, slot, count);
+            }
+
+            return false;
+        }
+
+        private boolean importPairCount(String pair, int count) {
+            // Interval limit, space, slot name, separator, slot name
+            int space = pair.indexOf(' ');
+            if (space < 0) {
+                return false;
+            }
+            int separator = pair.indexOf(PAIR_SEPARATOR, space + 1);
+            if (separator < 0) {
+                return false;
+            }
+
+            int fromSlot = KeySlots.getSlot(pair.substring(space + 1, separator));
+            int toSlot = KeySlots.getSlot(pair.substring(separator + PAIR_SEPARATOR.length()));
+            if (fromSlot < 0 || toSlot < 0) {
+                return false;
+            }
+
+            int limitMs;
+            try {
+                limitMs = Integer.parseInt(pair.substring(0, space));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            int bucket = -1;
+            for (int i = 0; i < KeyPairCounters.BUCKET_COUNT; i++) {
+                if (KeyPairCounters.BUCKET_LIMITS_MS[i] == limitMs) {
+                    bucket = i;
+                    break;
+                }
+            }
+            if (bucket < 0) {
+                return false;
+            }
+
+            return tracker.importPairCount(fromSlot, toSlot, bucket, count);
+        }
+
+        /**
+         * Write out whatever is left.
+         */
+        void finish() throws IOException {
+            appendKeyBatch();
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import timber.log.Timber;
+
+/**
+ * Keystroke counts per {@link KeySlots key slot} by hour, day and month, in a memory mapped file
+ * with a fixed layout.
+ * <p>
+ * Every keystroke is counted in the current hour, day and month at once, so days and months are
+ * always up to date rollups of their hours without any separate rollup step. Each level is a ring
+ * of buckets, and a bucket gets reused when its period is too old to fit in the ring.
+ * <p>
+ * File layout, all big endian:
+ * <ul>
+ * <li>Header: magic, version, slot count and bucket count
+ * <li>Hour buckets, then day buckets, then month buckets. Each bucket is a period id as an int
+ * (0 means unused), followed by an int count per slot.
+ * </ul>
+ * Period ids are local time hours or days since 1970, or year * 12 + month for months.
+ */
+class TimeBucketCounters {
+    private static final int MAGIC = 0x45_58_54_42;  // "EXTB"
+    private static final int VERSION = 1;
+
+    static final int HOURS = 0;
+    static final int DAYS = 1;
+    static final int MONTHS = 2;
+
+    /**
+     * Buckets per level. Two days of hours, two months of days and two years of months.
+     */
+    private static final int[] LEVEL_BUCKETS = { 48, 62, 24 };
+    private static final int[] LEVEL_FIRST_BUCKET = {
+        0, LEVEL_BUCKETS[HOURS], LEVEL_BUCKETS[HOURS] + LEVEL_BUCKETS[DAYS]
+    };
+    private static final int BUCKET_COUNT = LEVEL_FIRST_BUCKET[MONTHS] + LEVEL_BUCKETS[MONTHS];
+    private static final int LEVEL_COUNT = LEVEL_BUCKETS.length;
+
+    private static final int HEADER_BYTES = 16;
+    private static final int BUCKET_BYTES = 4 + KeySlots.COUNT * 4;
+    private static final int FILE_BYTES = HEADER_BYTES + BUCKET_COUNT * BUCKET_BYTES;
+
+    /**
+     * One period's counts, as read from a time buckets file.
+     */
+    static class Bucket {
+        /**
+         * {@link #HOURS}, {@link #DAYS} or {@link #MONTHS}
+         */
+        final int level;
+
+        final int periodId;
+
+        /**
+         * Indexed by slot.
+         */
+        final int[] counts;
+
+        Bucket(int level, int periodId, int[] counts) {
+            this.level = level;
+            this.periodId = periodId;
+            this.counts = counts;
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Period ids for the hour between {@link #currentHourStartMillis} and
+     * {@link #currentHourEndMillis}, so that we only need to do calendar math once an hour.
+     */
+    private final int[] currentPeriodIds = new int[LEVEL_COUNT];
+    private long currentHourStartMillis;
+    private long currentHourEndMillis;
+
+    private TimeBucketCounters(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Map a time buckets file, creating it if needed.
+     *
+     * @throws IOException if the file can't be mapped, or is of some other version
+     */
+    static TimeBucketCounters open(File file) throws IOException {
+        boolean isNew = !file.exists() || file.length() == 0;
+        if (!isNew && file.length() != FILE_BYTES) {
+            throw new IOException(
+                "Time buckets file has unexpected size " + file.length() + ": "
+                    + file.getAbsolutePath());
+        }
+
+        // The mapping stays valid after the file has been closed
+        MappedByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(FILE_BYTES);
+            buffer = randomAccessFile.getChannel().map(
+                FileChannel.MapMode.READ_WRITE, 0, FILE_BYTES);
+        }
+
+        if (isNew) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, KeySlots.COUNT);
+            buffer.putInt(12, BUCKET_COUNT);
+            buffer.force();
+            Timber.i("Time buckets file created: %s", file.getAbsolutePath());
+        } else {
+            validateHeader(buffer, file);
+        }
+
+        return new TimeBucketCounters(buffer);
+    }
+
+    private static void validateHeader(MappedByteBuffer buffer, File file) throws IOException {
+        if (buffer.getInt(0) != MAGIC
+            || buffer.getInt(4) != VERSION
+            || buffer.getInt(8) != KeySlots.COUNT
+            || buffer.getInt(12) != BUCKET_COUNT)
+        {
+            throw new IOException(
+                "Time buckets file has unsupported header: " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * The id of the period containing the calendar's time.
+     *
+     * @param level {@link #HOURS}, {@link #DAYS} or {@link #MONTHS}
+     */
+    static int getPeriodId(int level, Calendar calendar) {
+        long localMillis = calendar.getTimeInMillis()
+            + calendar.get(Calendar.ZONE_OFFSET)
+            + calendar.get(Calendar.DST_OFFSET);
+
+        switch (level) {
+            case HOURS:
+                return (int)(localMillis / TimeUnit.HOURS.toMillis(1));
+            case DAYS:
+                return (int)(localMillis / TimeUnit.DAYS.toMillis(1));
+            case MONTHS:
+                return calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH);
+            default:
+                throw new IllegalArgumentException("Unknown level: " + level);
+        }
+    }
+
+    private static int getBucketOffset(int level, int periodId) {
+        int bucket = LEVEL_FIRST_BUCKET[level] + periodId % LEVEL_BUCKETS[level];
+        return HEADER_BYTES + bucket * BUCKET_BYTES;
+    }
+
+    private void updateCurrentPeriods(long timeMillis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeMillis);
+        for (int level = 0; level < LEVEL_COUNT; level++) {
+            currentPeriodIds[level] = getPeriodId(level, calendar);
+        }
+
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        currentHourStartMillis = calendar.getTimeInMillis();
+        calendar.add(Calendar.HOUR_OF_DAY, 1);
+        currentHourEndMillis = calendar.getTimeInMillis();
+    }
+
+    /**
+     * Count one keystroke.
+     * <p>
+     * Must not be called concurrently from more than one thread.
+     *
+     * @param timeMillis When the keystroke happened, from {@link System#currentTimeMillis()}
+     */
+    void increment(int slot, long timeMillis) {
+        if (timeMillis < currentHourStartMillis || timeMillis >= currentHourEndMillis) {
+            updateCurrentPeriods(timeMillis);
+        }
+
+        for (int level = 0; level < LEVEL_COUNT; level++) {
+            add(level, currentPeriodIds[level], slot, 1);
+        }
+    }
+
+    /**
+     * Add to the count for a slot in some period. Same threading rules as for
+     * {@link #increment(int, long)}.
+     *
+     * @return false if the period is too old to fit
+     */
+    boolean add(int level, int periodId, int slot, int count) {
+        int offset = getBucketOffset(level, periodId);
+        int storedPeriodId = buffer.getInt(offset);
+        if (storedPeriodId > periodId) {
+            // The bucket has moved on to some later period
+            return false;
+        }
+
+        if (storedPeriodId != periodId) {
+            // Bucket is from an older period, zero the counts first so nobody sees old counts
+            // for the new period
+            for (int i = 0; i < KeySlots.COUNT; i++) {
+                buffer.putInt(offset + 4 + i * 4, 0);
+            }
+            buffer.putInt(offset, periodId);
+        }
+
+        int countOffset = offset + 4 + slot * 4;
+        buffer.putInt(countOffset, buffer.getInt(countOffset) + count);
+        return true;
+    }
+
+    /**
+     * Make sure everything has made it to disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Read all buckets in use from a time buckets file.
+     *
+     * @return Empty if there is no such file
+     */
+    static List<Bucket> readBuckets(File file) throws IOException {
+        List<Bucket> buckets = new ArrayList<>();
+        if (!file.exists()) {
+            return buckets;
+        }
+        MappedByteBuffer buffer = mapForReading(file);
+
+        for (int level = 0; level < LEVEL_COUNT; level++) {
+            for (int i = 0; i < LEVEL_BUCKETS[level]; i++) {
+                int offset = HEADER_BYTES + (LEVEL_FIRST_BUCKET[level] + i) * BUCKET_BYTES;
+                int periodId = buffer.getInt(offset);
+                if (periodId == 0) {
+                    continue;
+                }
+
+                int[] counts = new int[KeySlots.COUNT];
+                for (int slot = 0; slot < KeySlots.COUNT; slot++) {
+                    counts[slot] = buffer.getInt(offset + 4 + slot * 4);
+                }
+                buckets.add(new Bucket(level, periodId, counts));
+            }
+        }
+
+        return buckets;
+    }
+
+    private static MappedByteBuffer mapForReading(File file) throws IOException {
+        if (file.length() != FILE_BYTES) {
+            throw new IOException(
+                "Time buckets file has unexpected size " + file.length() + ": "
+                    + file.getAbsolutePath());
+        }
+
+        MappedByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            buffer = randomAccessFile.getChannel().map(
+                FileChannel.MapMode.READ_ONLY, 0, FILE_BYTES);
+        }
+        validateHeader(buffer, file);
+        return buffer;
+    }
+
+    /**
+     * Sum up counts per slot for a range of periods in a time buckets file. Periods too old to be
+     * in there anymore count as zero.
+     *
+     * @param level {@link #HOURS}, {@link #DAYS} or {@link #MONTHS}
+     * @param firstPeriodId Inclusive
+     * @param lastPeriodId Inclusive
+     * @return Counts indexed by slot, all zeros if there is no such file
+     */
+    static int[] sum(File file, int level, int firstPeriodId, int lastPeriodId)
+        throws IOException
+    {
+        if (!file.exists()) {
+            return new int[KeySlots.COUNT];
+        }
+
+        return sum(mapForReading(file), level, firstPeriodId, lastPeriodId);
+    }
+
+    /**
+     * Like {@link #sum(File, int, int, int)}, but from our own mapping without touching the file
+     * system.
+     */
+    int[] sum(int level, int firstPeriodId, int lastPeriodId) {
+        return sum(buffer, level, firstPeriodId, lastPeriodId);
+    }
+
+    private static int[] sum(
+        MappedByteBuffer buffer, int level, int firstPeriodId, int lastPeriodId)
+    {
+        int[] counts = new int[KeySlots.COUNT];
+
+        // Look at each bucket at most once, however long the range
+        int firstBucket = LEVEL_FIRST_BUCKET[level];
+        for (int bucket = firstBucket; bucket < firstBucket + LEVEL_BUCKETS[level]; bucket++) {
+            int offset = HEADER_BYTES + bucket * BUCKET_BYTES;
+            int periodId = buffer.getInt(offset);
+            if (periodId == 0 || periodId < firstPeriodId || periodId > lastPeriodId) {
+                continue;
+            }
+
+            for (int slot = 0; slot < KeySlots.COUNT; slot++) {
+                counts[slot] += buffer.getInt(offset + 4 + slot * 4);
+            }
+        }
+
+        return counts;
+    }
+}
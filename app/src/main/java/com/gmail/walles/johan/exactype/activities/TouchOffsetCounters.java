@@ -0,0 +1,220 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import androidx.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Where taps land relative to the centers of the keys they hit, per {@link KeySlots key slot}, in
+ * a memory mapped file with a fixed layout.
+ * <p>
+ * Offsets are stored in fixed point, in units of 1 / {@link #UNITS_PER_MM} mm. For each slot we
+ * keep the sums of the offsets, for finding out whether taps are off center, and a
+ * {@link #BINS_PER_AXIS} by {@link #BINS_PER_AXIS} histogram of 1mm squares around the key
+ * center. Taps further out than the histogram covers go into its edge bins.
+ * <p>
+ * File layout, all big endian:
+ * <ul>
+ * <li>Header: magic, version, slot count and bins per axis
+ * <li>For each slot: tap count, sum of x offsets and sum of y offsets as longs, followed by the
+ * histogram as ints, rows top to bottom
+ * </ul>
+ */
+class TouchOffsetCounters {
+    private static final int MAGIC = 0x45_58_54_4f;  // "EXTO"
+    private static final int VERSION = 1;
+
+    static final int UNITS_PER_MM = 16;
+
+    static final int BINS_PER_AXIS = 9;
+    private static final int UNITS_PER_BIN = UNITS_PER_MM;
+
+    /**
+     * Offset of the left / top edge of the histogram.
+     */
+    private static final int HISTOGRAM_START_UNITS = -(BINS_PER_AXIS * UNITS_PER_BIN) / 2;
+
+    private static final int HEADER_BYTES = 16;
+    private static final int HISTOGRAM_OFFSET = 24;
+    private static final int SLOT_BYTES = HISTOGRAM_OFFSET + BINS_PER_AXIS * BINS_PER_AXIS * 4;
+    private static final int FILE_BYTES = HEADER_BYTES + KeySlots.COUNT * SLOT_BYTES;
+
+    /**
+     * One key's taps, as read from a touch offsets file.
+     */
+    static class KeyOffsets {
+        final long count;
+        final float meanDxMm;
+        final float meanDyMm;
+
+        /**
+         * Indexed by row * {@link #BINS_PER_AXIS} + column.
+         */
+        final int[] histogram;
+
+        KeyOffsets(long count, long sumDx, long sumDy, int[] histogram) {
+            this.count = count;
+            this.meanDxMm = sumDx / (float)(count * UNITS_PER_MM);
+            this.meanDyMm = sumDy / (float)(count * UNITS_PER_MM);
+            this.histogram = histogram;
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+
+    private TouchOffsetCounters(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Map a touch offsets file, creating it if needed.
+     *
+     * @throws IOException if the file can't be mapped, or is of some other version
+     */
+    static TouchOffsetCounters open(File file) throws IOException {
+        boolean isNew = !file.exists() || file.length() == 0;
+        if (!isNew && file.length() != FILE_BYTES) {
+            throw new IOException(
+                "Touch offsets file has unexpected size " + file.length() + ": "
+                    + file.getAbsolutePath());
+        }
+
+        // The mapping stays valid after the file has been closed
+        MappedByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(FILE_BYTES);
+            buffer = randomAccessFile.getChannel().map(
+                FileChannel.MapMode.READ_WRITE, 0, FILE_BYTES);
+        }
+
+        if (isNew) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, KeySlots.COUNT);
+            buffer.putInt(12, BINS_PER_AXIS);
+            buffer.force();
+            Timber.i("Touch offsets file created: %s", file.getAbsolutePath());
+        } else {
+            validateHeader(buffer, file);
+        }
+
+        return new TouchOffsetCounters(buffer);
+    }
+
+    private static void validateHeader(MappedByteBuffer buffer, File file) throws IOException {
+        if (buffer.getInt(0) != MAGIC
+            || buffer.getInt(4) != VERSION
+            || buffer.getInt(8) != KeySlots.COUNT
+            || buffer.getInt(12) != BINS_PER_AXIS)
+        {
+            throw new IOException(
+                "Touch offsets file has unsupported header: " + file.getAbsolutePath());
+        }
+    }
+
+    private static int getBin(int offsetUnits) {
+        int fromStart = offsetUnits - HISTOGRAM_START_UNITS;
+        if (fromStart < 0) {
+            return 0;
+        }
+        return Math.min(BINS_PER_AXIS - 1, fromStart / UNITS_PER_BIN);
+    }
+
+    /**
+     * Count one tap.
+     * <p>
+     * Must not be called concurrently from more than one thread.
+     *
+     * @param dxMm How far right of the key center the tap was
+     * @param dyMm How far below the key center the tap was
+     */
+    void record(int slot, float dxMm, float dyMm) {
+        int dx = Math.round(dxMm * UNITS_PER_MM);
+        int dy = Math.round(dyMm * UNITS_PER_MM);
+
+        int offset = HEADER_BYTES + slot * SLOT_BYTES;
+        buffer.putLong(offset + 8, buffer.getLong(offset + 8) + dx);
+        buffer.putLong(offset + 16, buffer.getLong(offset + 16) + dy);
+
+        int binOffset =
+            offset + HISTOGRAM_OFFSET + (getBin(dy) * BINS_PER_AXIS + getBin(dx)) * 4;
+        buffer.putInt(binOffset, buffer.getInt(binOffset) + 1);
+
+        // Count last, so that a reader seeing the count also sees what was counted
+        buffer.putLong(offset, buffer.getLong(offset) + 1);
+    }
+
+    /**
+     * Make sure everything has made it to disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Read the taps for all slots from a touch offsets file.
+     *
+     * @return Indexed by slot, with nulls for slots without taps. Empty if there is no such file.
+     */
+    static KeyOffsets[] read(File file) throws IOException {
+        if (!file.exists()) {
+            return new KeyOffsets[0];
+        }
+        if (file.length() != FILE_BYTES) {
+            throw new IOException(
+                "Touch offsets file has unexpected size " + file.length() + ": "
+                    + file.getAbsolutePath());
+        }
+
+        MappedByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            buffer = randomAccessFile.getChannel().map(
+                FileChannel.MapMode.READ_ONLY, 0, FILE_BYTES);
+        }
+        validateHeader(buffer, file);
+
+        KeyOffsets[] keyOffsets = new KeyOffsets[KeySlots.COUNT];
+        for (int slot = 0; slot < KeySlots.COUNT; slot++) {
+            keyOffsets[slot] = readSlot(buffer, slot);
+        }
+        return keyOffsets;
+    }
+
+    @Nullable
+    private static KeyOffsets readSlot(MappedByteBuffer buffer, int slot) {
+        int offset = HEADER_BYTES + slot * SLOT_BYTES;
+        long count = buffer.getLong(offset);
+        if (count == 0) {
+            return null;
+        }
+
+        int[] histogram = new int[BINS_PER_AXIS * BINS_PER_AXIS];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = buffer.getInt(offset + HISTOGRAM_OFFSET + i * 4);
+        }
+
+        return new KeyOffsets(
+            count, buffer.getLong(offset + 8), buffer.getLong(offset + 16), histogram);
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Approximate counts of the most common typed words, in a memory mapped file with a fixed layout.
+ * <p>
+ * Words are put together from typed characters one keystroke at a time. Finished words are
+ * counted in a count-min sketch, and the {@link #TOP_WORD_COUNT} words with the highest estimates
+ * are kept in a Space-Saving style table, where a new word replaces the least common one if its
+ * estimate is higher. Memory use is the same however many different words get typed.
+ * <p>
+ * File layout, all big endian:
+ * <ul>
+ * <li>Header: magic, version, sketch width and top word count
+ * <li>{@link #SKETCH_DEPTH} rows of {@link #SKETCH_WIDTH} int counters
+ * <li>{@link #TOP_WORD_COUNT} top words of: estimated count (0 means empty), hash and length as
+ * ints, followed by {@link #MAX_WORD_LENGTH} chars
+ * </ul>
+ */
+class WordCounters {
+    private static final int MAGIC = 0x45_58_57_43;  // "EXWC"
+    private static final int VERSION = 1;
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH_BITS = 11;
+    private static final int SKETCH_WIDTH = 1 << SKETCH_WIDTH_BITS;
+
+    /**
+     * Odd multipliers for hashing a word into each sketch row.
+     */
+    private static final int[] ROW_SEEDS = { 0x9e3779b1, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f };
+
+    static final int TOP_WORD_COUNT = 64;
+
+    /**
+     * Longer words are not counted.
+     */
+    static final int MAX_WORD_LENGTH = 24;
+
+    private static final int HEADER_BYTES = 16;
+    private static final int SKETCH_BYTES = SKETCH_DEPTH * SKETCH_WIDTH * 4;
+    private static final int TOP_WORD_BYTES = 12 + MAX_WORD_LENGTH * 2;
+    private static final int TOP_WORDS_OFFSET = HEADER_BYTES + SKETCH_BYTES;
+    private static final int FILE_BYTES = TOP_WORDS_OFFSET + TOP_WORD_COUNT * TOP_WORD_BYTES;
+
+    private final MappedByteBuffer buffer;
+
+    /**
+     * The word being typed.
+     */
+    private final char[] word = new char[MAX_WORD_LENGTH];
+    private int wordLength;
+
+    /**
+     * False if we don't know what the current word looks like, because it is too long or
+     * because it was started by erasing into some earlier word.
+     */
+    private boolean wordValid = true;
+
+    private WordCounters(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Map a word counters file, creating it if needed.
+     *
+     * @throws IOException if the file can't be mapped, or is of some other version
+     */
+    static WordCounters open(File file) throws IOException {
+        boolean isNew = !file.exists() || file.length() == 0;
+        if (!isNew && file.length() != FILE_BYTES) {
+            throw new IOException(
+                "Words file has unexpected size " + file.length() + ": "
+                    + file.getAbsolutePath());
+        }
+
+        // The mapping stays valid after the file has been closed
+        MappedByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(FILE_BYTES);
+            buffer = randomAccessFile.getChannel().map(
+                FileChannel.MapMode.READ_WRITE, 0, FILE_BYTES);
+        }
+
+        if (isNew) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, SKETCH_WIDTH);
+            buffer.putInt(12, TOP_WORD_COUNT);
+            buffer.force();
+            Timber.i("Words file created: %s", file.getAbsolutePath());
+        } else {
+            validateHeader(buffer, file);
+        }
+
+        return new WordCounters(buffer);
+    }
+
+    private static void validateHeader(MappedByteBuffer buffer, File file) throws IOException {
+        if (buffer.getInt(0) != MAGIC
+            || buffer.getInt(4) != VERSION
+            || buffer.getInt(8) != SKETCH_WIDTH
+            || buffer.getInt(12) != TOP_WORD_COUNT)
+        {
+            throw new IOException("Words file has unsupported header: " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Feed a typed character into the current word. Anything but letters and apostrophes ends
+     * the current word.
+     * <p>
+     * This and the other word methods must not be called concurrently from more than one thread.
+     *
+     * @return true if this ended a word that got counted
+     */
+    boolean onCharacter(char character) {
+        if (!Character.isLetter(character) && character != '\'') {
+            return endWord();
+        }
+
+        if (wordLength == MAX_WORD_LENGTH) {
+            wordValid = false;
+            return false;
+        }
+        word[wordLength++] = Character.toLowerCase(character);
+        return false;
+    }
+
+    void onBackspace() {
+        if (wordLength > 0) {
+            wordLength--;
+            return;
+        }
+
+        // We're erasing into a word we have already counted, and can't tell what it looks like
+        wordValid = false;
+    }
+
+    /**
+     * Forget about the current word, for when we don't know where it ends.
+     */
+    void discardWord() {
+        wordLength = 0;
+        wordValid = true;
+    }
+
+    /**
+     * @return true if there was a word to count
+     */
+    boolean endWord() {
+        // Apostrophes are quotes rather than parts of words at the ends
+        int start = 0;
+        while (start < wordLength && word[start] == '\'') {
+            start++;
+        }
+        int end = wordLength;
+        while (end > start && word[end - 1] == '\'') {
+            end--;
+        }
+
+        boolean counted = false;
+        if (wordValid && end > start) {
+            count(word, start, end - start, 1);
+            counted = true;
+        }
+
+        discardWord();
+        return counted;
+    }
+
+    private static int hash(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = hash * 31 + chars[i];
+        }
+        return hash;
+    }
+
+    private static int getSketchOffset(int row, int hash) {
+        int column = (hash * ROW_SEEDS[row]) >>> (32 - SKETCH_WIDTH_BITS);
+        return HEADER_BYTES + (row * SKETCH_WIDTH + column) * 4;
+    }
+
+    /**
+     * Add to the count of some word. Same threading rules as for {@link #onCharacter(char)}.
+     *
+     * @return false if the word was empty or too long to count
+     */
+    boolean add(String word, int count) {
+        int length = word.length();
+        if (length == 0 || length > MAX_WORD_LENGTH) {
+            return false;
+        }
+
+        count(word.toCharArray(), 0, length, count);
+        return true;
+    }
+
+    private void count(char[] chars, int start, int length, int count) {
+        int hash = hash(chars, start, length);
+
+        // Conservative update: only bump the rows at the minimum, the others already overestimate
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            estimate = Math.min(estimate, buffer.getInt(getSketchOffset(row, hash)));
+        }
+        estimate += count;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            int offset = getSketchOffset(row, hash);
+            if (buffer.getInt(offset) < estimate) {
+                buffer.putInt(offset, estimate);
+            }
+        }
+
+        updateTopWords(chars, start, length, hash, estimate);
+    }
+
+    private void updateTopWords(char[] chars, int start, int length, int hash, int estimate) {
+        int minOffset = -1;
+        int minCount = Integer.MAX_VALUE;
+        for (int i = 0; i < TOP_WORD_COUNT; i++) {
+            int offset = TOP_WORDS_OFFSET + i * TOP_WORD_BYTES;
+            int count = buffer.getInt(offset);
+            if (count != 0 && isWordAt(offset, chars, start, length, hash)) {
+                buffer.putInt(offset, estimate);
+                return;
+            }
+
+            if (count < minCount) {
+                minCount = count;
+                minOffset = offset;
+            }
+        }
+
+        if (estimate <= minCount) {
+            // Not among the top words
+            return;
+        }
+
+        // Empty the entry before reusing it, so nobody sees the old count with the new word
+        buffer.putInt(minOffset, 0);
+        buffer.putInt(minOffset + 4, hash);
+        buffer.putInt(minOffset + 8, length);
+        for (int i = 0; i < length; i++) {
+            buffer.putChar(minOffset + 12 + i * 2, chars[start + i]);
+        }
+        buffer.putInt(minOffset, estimate);
+    }
+
+    private boolean isWordAt(int offset, char[] chars, int start, int length, int hash) {
+        if (buffer.getInt(offset + 4) != hash || buffer.getInt(offset + 8) != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.getChar(offset + 12 + i * 2) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Make sure everything has made it to disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Read the top words from a word counters file.
+     *
+     * @return Estimated counts by word, empty if there is no such file
+     */
+    static Map<String, Integer> readTopWords(File file) throws IOException {
+        Map<String, Integer> counts = new HashMap<>();
+        if (!file.exists()) {
+            return counts;
+        }
+        if (file.length() != FILE_BYTES) {
+            throw new IOException(
+                "Words file has unexpected size " + file.length() + ": "
+                    + file.getAbsolutePath());
+        }
+
+        MappedByteBuffer buffer;
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            buffer = randomAccessFile.getChannel().map(
+                FileChannel.MapMode.READ_ONLY, 0, FILE_BYTES);
+        }
+        validateHeader(buffer, file);
+
+        return readTopWords(buffer);
+    }
+
+    /**
+     * Read the top words from our own mapping, without touching the file system.
+     *
+     * @return Estimated counts by word
+     */
+    Map<String, Integer> readTopWords() {
+        return readTopWords(buffer);
+    }
+
+    private static Map<String, Integer> readTopWords(MappedByteBuffer buffer) {
+        Map<String, Integer> counts = new HashMap<>();
+        char[] chars = new char[MAX_WORD_LENGTH];
+        for (int i = 0; i < TOP_WORD_COUNT; i++) {
+            int offset = TOP_WORDS_OFFSET + i * TOP_WORD_BYTES;
+            int count = buffer.getInt(offset);
+            int length = buffer.getInt(offset + 8);
+            if (count <= 0 || length <= 0 || length > MAX_WORD_LENGTH) {
+                continue;
+            }
+
+            for (int j = 0; j < length; j++) {
+                chars[j] = buffer.getChar(offset + 12 + j * 2);
+            }
+            counts.put(new String(chars, 0, length), count);
+        }
+
+        return counts;
+    }
+}
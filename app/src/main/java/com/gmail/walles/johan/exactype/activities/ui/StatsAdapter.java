@@ -0,0 +1,323 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities.ui;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import com.gmail.walles.johan.exactype.R;
+import com.gmail.walles.johan.exactype.util.RankedCounts;
+
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Locale;
+
+import androidx.annotation.Nullable;
+
+/**
+ * All stats in one list, section by section.
+ * <p>
+ * Only the rows on screen have views, and views are reused as rows scroll by. Row strings are
+ * formatted the first time a row is shown and then cached until {@link #notifyDataSetChanged()},
+ * so opening and scrolling doesn't depend on how many entries there are.
+ */
+class StatsAdapter extends BaseAdapter {
+    /**
+     * Show this many of the slowest and of the most frequent key pairs.
+     */
+    private static final int PAIR_LIST_LENGTH = 10;
+
+    private static final int WORD_LIST_LENGTH = 20;
+
+    private static final int VIEW_TYPE_TITLE = 0;
+    private static final int VIEW_TYPE_ROW = 1;
+
+    private static final int MAX_COLUMN_COUNT = 4;
+
+    private abstract static class Section {
+        @Nullable
+        final String title;
+
+        final String[] headings;
+
+        Section(@Nullable String title, String ... headings) {
+            this.title = title;
+            this.headings = headings;
+        }
+
+        abstract int getRowCount();
+
+        /**
+         * Format the columns for one row. Only called on cache misses.
+         */
+        abstract String[] formatRow(int index);
+    }
+
+    private static class ViewHolder {
+        final TextView[] columns = new TextView[MAX_COLUMN_COUNT];
+    }
+
+    private final StatsViewModel viewModel;
+    private final LayoutInflater inflater;
+    private final Resources resources;
+    private final NumberFormat numberFormat = NumberFormat.getNumberInstance(Locale.getDefault());
+
+    private final Section[] sections;
+
+    /**
+     * Formatted rows by position, filled in as rows are shown.
+     */
+    private String[][] rowCache = new String[0][];
+
+    /**
+     * The position of each section's first row, with the total row count last.
+     */
+    private final int[] sectionStarts;
+
+    StatsAdapter(Context context, StatsViewModel viewModel) {
+        this.viewModel = viewModel;
+        this.inflater = LayoutInflater.from(context);
+        this.resources = context.getResources();
+
+        sections = new Section[] {
+            createKeysSection(),
+            createPairsSection(
+                resources.getString(R.string.stats_slowest_key_pairs), viewModel.slowPairs),
+            createPairsSection(
+                resources.getString(R.string.stats_frequent_key_pairs), viewModel.pairCounts),
+            createWordsSection(),
+        };
+        sectionStarts = new int[sections.length + 1];
+        updatePositions();
+    }
+
+    private Section createKeysSection() {
+        return new Section(null,
+            resources.getString(R.string.stats_column_character),
+            resources.getString(R.string.stats_column_count),
+            resources.getString(R.string.rank),
+            resources.getString(R.string.percentile))
+        {
+            @Override
+            int getRowCount() {
+                return viewModel.keyCounts.size();
+            }
+
+            @Override
+            String[] formatRow(int index) {
+                RankedCounts keyCounts = viewModel.keyCounts;
+                return new String[] {
+                    StatsViewModel.getDisplayName(keyCounts.getKey(index)),
+                    numberFormat.format(keyCounts.getCount(index)),
+                    numberFormat.format(index + 1),
+                    resources.getString(R.string.percentile_fmt, keyCounts.getPercentile(index)),
+                };
+            }
+        };
+    }
+
+    private Section createPairsSection(String title, RankedCounts ranking) {
+        return new Section(title,
+            resources.getString(R.string.stats_column_key_pair),
+            resources.getString(R.string.stats_column_count),
+            resources.getString(R.string.stats_column_median_interval))
+        {
+            @Override
+            int getRowCount() {
+                return Math.min(ranking.size(), PAIR_LIST_LENGTH);
+            }
+
+            @Override
+            String[] formatRow(int index) {
+                String name = ranking.getKey(index);
+                Integer medianMs = viewModel.pairMedianMs.get(name);
+                return new String[] {
+                    name,
+                    numberFormat.format(viewModel.pairCounts.getCount(name)),
+                    resources.getString(R.string.interval_fmt, medianMs == null ? 0 : medianMs),
+                };
+            }
+        };
+    }
+
+    private Section createWordsSection() {
+        return new Section(resources.getString(R.string.stats_top_words),
+            resources.getString(R.string.stats_column_word),
+            resources.getString(R.string.stats_column_count))
+        {
+            @Override
+            int getRowCount() {
+                return Math.min(viewModel.wordCounts.size(), WORD_LIST_LENGTH);
+            }
+
+            @Override
+            String[] formatRow(int index) {
+                RankedCounts wordCounts = viewModel.wordCounts;
+                return new String[] {
+                    wordCounts.getKey(index),
+                    numberFormat.format(wordCounts.getCount(index)),
+                };
+            }
+        };
+    }
+
+    /**
+     * How many list positions a section takes, including its title and headings.
+     */
+    private static int getPositionCount(Section section) {
+        return (section.title == null ? 0 : 1) + 1 + section.getRowCount();
+    }
+
+    private void updatePositions() {
+        int position = 0;
+        for (int i = 0; i < sections.length; i++) {
+            sectionStarts[i] = position;
+            position += getPositionCount(sections[i]);
+        }
+        sectionStarts[sections.length] = position;
+
+        if (rowCache.length == position) {
+            Arrays.fill(rowCache, null);
+        } else {
+            rowCache = new String[position][];
+        }
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        updatePositions();
+        super.notifyDataSetChanged();
+    }
+
+    private int getSectionIndex(int position) {
+        int index = Arrays.binarySearch(sectionStarts, position);
+        if (index >= 0) {
+            // Several sections can't start at the same position, they all have headings
+            return index;
+        }
+
+        // Insertion point minus one is the section starting before this position
+        return -index - 2;
+    }
+
+    @Override
+    public int getCount() {
+        return sectionStarts[sections.length];
+    }
+
+    /**
+     * @return The strings to show at some position
+     */
+    @Override
+    public String[] getItem(int position) {
+        String[] row = rowCache[position];
+        if (row != null) {
+            return row;
+        }
+
+        int sectionIndex = getSectionIndex(position);
+        Section section = sections[sectionIndex];
+        int offset = position - sectionStarts[sectionIndex];
+        if (section.title != null) {
+            if (offset == 0) {
+                row = new String[] { section.title };
+            }
+            offset--;
+        }
+
+        if (row == null) {
+            row = offset == 0 ? section.headings : section.formatRow(offset - 1);
+        }
+
+        rowCache[position] = row;
+        return row;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return 2;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        int sectionIndex = getSectionIndex(position);
+        if (sections[sectionIndex].title != null && sectionStarts[sectionIndex] == position) {
+            return VIEW_TYPE_TITLE;
+        }
+        return VIEW_TYPE_ROW;
+    }
+
+    @Override
+    public boolean areAllItemsEnabled() {
+        return false;
+    }
+
+    @Override
+    public boolean isEnabled(int position) {
+        // Nothing to click
+        return false;
+    }
+
+    @Override
+    public View getView(int position, @Nullable View convertView, ViewGroup parent) {
+        String[] row = getItem(position);
+
+        if (getItemViewType(position) == VIEW_TYPE_TITLE) {
+            TextView title = (TextView)convertView;
+            if (title == null) {
+                title = (TextView)inflater.inflate(R.layout.stats_title, parent, false);
+            }
+            title.setText(row[0]);
+            return title;
+        }
+
+        View view = convertView;
+        ViewHolder viewHolder;
+        if (view == null) {
+            view = inflater.inflate(R.layout.stats_row, parent, false);
+            viewHolder = new ViewHolder();
+            viewHolder.columns[0] = view.findViewById(R.id.column0);
+            viewHolder.columns[1] = view.findViewById(R.id.column1);
+            viewHolder.columns[2] = view.findViewById(R.id.column2);
+            viewHolder.columns[3] = view.findViewById(R.id.column3);
+            view.setTag(viewHolder);
+        } else {
+            viewHolder = (ViewHolder)view.getTag();
+        }
+
+        for (int i = 0; i < MAX_COLUMN_COUNT; i++) {
+            TextView column = viewHolder.columns[i];
+            if (i < row.length) {
+                column.setText(row[i]);
+                column.setVisibility(View.VISIBLE);
+            } else {
+                column.setVisibility(View.INVISIBLE);
+            }
+        }
+        return view;
+    }
+}
@@ -16,25 +16,30 @@
 
 package com.gmail.walles.johan.exactype.activities.ui;
 
+import android.app.Activity;
 import android.content.Context;
-import android.content.res.Resources;
+import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
-import android.util.TypedValue;
-import android.view.Gravity;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.TableLayout;
-import android.widget.TableRow;
-import android.widget.TextView;
+import android.widget.ListView;
+import android.widget.Toast;
 
 import com.gmail.walles.johan.exactype.R;
+import com.gmail.walles.johan.exactype.activities.StatsTracker;
+import com.gmail.walles.johan.exactype.activities.StatsTransfer;
+import com.gmail.walles.johan.exactype.util.BackgroundExecutor;
 
-import java.text.NumberFormat;
-import java.util.Locale;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -43,9 +48,17 @@ import androidx.lifecycle.ViewModelProvider;
 import timber.log.Timber;
 
 public class StatsFragment extends Fragment {
+    private static final int REQUEST_EXPORT = 1;
+    private static final int REQUEST_IMPORT = 2;
+
+    private static final String EXPORT_FILE_NAME = "exactype-stats.txt";
+    private static final String EXPORT_MIME_TYPE = "text/plain";
 
     private StatsViewModel viewModel;
 
+    @Nullable
+    private StatsAdapter adapter;
+
     public static StatsFragment newInstance() {
         return new StatsFragment();
     }
@@ -67,13 +80,120 @@ public class StatsFragment extends Fragment {
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         if (item.getItemId() == R.id.refresh) {
-            viewModel.refresh(getContext());
-            repopulateTable();
+            // The list gets refreshed when the new stats arrive
+            viewModel.refresh(requireContext());
+            return true;
+        }
+
+        if (item.getItemId() == R.id.export_stats) {
+            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType(EXPORT_MIME_TYPE);
+            intent.putExtra(Intent.EXTRA_TITLE, EXPORT_FILE_NAME);
+            startActivityForResult(intent, REQUEST_EXPORT);
+            return true;
+        }
+
+        if (item.getItemId() == R.id.import_stats) {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType(EXPORT_MIME_TYPE);
+            startActivityForResult(intent, REQUEST_IMPORT);
+            return true;
+        }
+
+        if (item.getGroupId() == R.id.period) {
+            item.setChecked(true);
+            viewModel.setPeriod(getPeriod(item.getItemId()));
+            refreshList();
             return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != Activity.RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+
+        Uri uri = data.getData();
+        Context context = requireContext().getApplicationContext();
+        if (requestCode == REQUEST_EXPORT) {
+            BackgroundExecutor.get().execute(() -> exportStats(context, uri));
+        } else if (requestCode == REQUEST_IMPORT) {
+            StatsViewModel viewModel = this.viewModel;
+            BackgroundExecutor.get().execute(() -> {
+                if (importStats(context, uri)) {
+                    viewModel.refresh(context);
+                }
+            });
+        }
+    }
+
+    /**
+     * Must be called on the {@link BackgroundExecutor} thread.
+     */
+    private static void exportStats(Context context, Uri uri) {
+        try (OutputStream out = context.getContentResolver().openOutputStream(uri)) {
+            if (out == null) {
+                throw new IOException("Unable to open export destination: " + uri);
+            }
+            StatsTransfer.exportStats(context, out);
+        } catch (IOException e) {
+            Timber.w(e, "Exporting stats failed");
+            showToast(context, context.getString(R.string.stats_export_failed));
+            return;
+        }
+
+        showToast(context, context.getString(R.string.stats_exported));
+    }
+
+    /**
+     * Must be called on the {@link BackgroundExecutor} thread.
+     *
+     * @return true on success
+     */
+    private static boolean importStats(Context context, Uri uri) {
+        int importedCount;
+        try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+            if (in == null) {
+                throw new IOException("Unable to open import source: " + uri);
+            }
+            importedCount = StatsTransfer.importStats(context, in);
+        } catch (IOException e) {
+            Timber.w(e, "Importing stats failed");
+            showToast(context, context.getString(R.string.stats_import_failed));
+            return false;
+        }
+
+        showToast(context, context.getString(R.string.stats_imported_fmt, importedCount));
+        return true;
+    }
+
+    private static void showToast(Context context, String message) {
+        new Handler(Looper.getMainLooper()).post(
+            () -> Toast.makeText(context, message, Toast.LENGTH_LONG).show());
+    }
+
+    /**
+     * @return null for all time
+     */
+    @Nullable
+    private static StatsTracker.Period getPeriod(int menuItemId) {
+        if (menuItemId == R.id.last_24_hours) {
+            return StatsTracker.Period.LAST_24_HOURS;
+        }
+        if (menuItemId == R.id.last_7_days) {
+            return StatsTracker.Period.LAST_7_DAYS;
+        }
+        if (menuItemId == R.id.this_month) {
+            return StatsTracker.Period.THIS_MONTH;
+        }
+        return null;
+    }
+
     @Override
     public void onCreateOptionsMenu(@NonNull Menu menu, @NonNull MenuInflater inflater) {
         super.onCreateOptionsMenu(menu, inflater);
@@ -84,77 +204,26 @@ public class StatsFragment extends Fragment {
     public void onActivityCreated(@Nullable Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
         viewModel = new ViewModelProvider(this).get(StatsViewModel.class);
-        viewModel.populate(getContext());
-    }
-
-    @Override
-    public void onResume() {
-        super.onResume();
-
-        repopulateTable();
-    }
-
-    private void repopulateTable() {
-        Context context = getContext();
-        if (context == null) {
-            Timber.w("Context was null when trying to populate the stats table");
-            return;
-        }
+        viewModel.populate(requireContext());
 
         View view = getView();
         if (view == null) {
-            Timber.w("View was null when trying to populate stats table");
+            Timber.w("View was null when trying to set up the stats list");
             return;
         }
+        adapter = new StatsAdapter(view.getContext(), viewModel);
+        ListView list = view.findViewById(R.id.statsList);
+        list.setAdapter(adapter);
+
+        viewModel.getStats().observe(getViewLifecycleOwner(), stats -> refreshList());
+    }
 
-        TableLayout table = view.findViewById(R.id.statsTable);
-
-        // Remove everything except for the table heading
-        table.removeViewsInLayout(1, table.getChildCount() - 1);
-
-        Resources r = context.getResources();
-        int fiveDpInPixels = (int)TypedValue.applyDimension(
-            TypedValue.COMPLEX_UNIT_DIP,
-            5,
-            r.getDisplayMetrics()
-        );
-        TableRow.LayoutParams fiveDpOnEachSide = new TableRow.LayoutParams(
-            ViewGroup.LayoutParams.WRAP_CONTENT,
-            ViewGroup.LayoutParams.WRAP_CONTENT
-        );
-        fiveDpOnEachSide.setMargins(fiveDpInPixels, 0, fiveDpInPixels, 0);
-
-        NumberFormat numberFormat = NumberFormat.getNumberInstance(Locale.getDefault());
-        for (StatsViewModel.Entry entry: viewModel.entries) {
-            TextView charColumn = new TextView(context);
-            charColumn.setText(entry.name);
-            charColumn.setGravity(Gravity.END);
-            charColumn.setLayoutParams(fiveDpOnEachSide);
-
-            TextView countColumn = new TextView(context);
-            countColumn.setText(numberFormat.format(entry.count));
-            countColumn.setGravity(Gravity.END);
-            countColumn.setLayoutParams(fiveDpOnEachSide);
-
-            TextView rankColumn = new TextView(context);
-            rankColumn.setText(numberFormat.format(entry.rank));
-            rankColumn.setGravity(Gravity.END);
-            rankColumn.setLayoutParams(fiveDpOnEachSide);
-
-            TextView percentileColumn = new TextView(context);
-            String percentileText =
-                context.getResources().getString(R.string.percentile_fmt, entry.percentile);
-            percentileColumn.setText(percentileText);
-            percentileColumn.setGravity(Gravity.END);
-            percentileColumn.setLayoutParams(fiveDpOnEachSide);
-
-            TableRow row = new TableRow(context);
-            row.addView(charColumn);
-            row.addView(countColumn);
-            row.addView(rankColumn);
-            row.addView(percentileColumn);
-
-            table.addView(row);
+    private void refreshList() {
+        if (adapter == null) {
+            Timber.w("Adapter was null when trying to refresh the stats list");
+            return;
         }
+
+        adapter.notifyDataSetChanged();
     }
 }
@@ -19,69 +19,216 @@ package com.gmail.walles.johan.exactype.activities.ui;
 import android.content.Context;
 
 import com.gmail.walles.johan.exactype.activities.StatsTracker;
+import com.gmail.walles.johan.exactype.util.BackgroundExecutor;
+import com.gmail.walles.johan.exactype.util.RankedCounts;
 
-import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import androidx.annotation.Nullable;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 import timber.log.Timber;
 
+/**
+ * Stats rankings for the stats screen.
+ * <p>
+ * Stats are read from disk on a background thread, and if the keyboard runs in this process we
+ * also follow what it publishes after each flush. Either way, the rankings are then updated on
+ * the main thread and observers of {@link #getStats()} get notified.
+ */
 public class StatsViewModel extends ViewModel {
-    public static class Entry {
-        public String name;
-        public int count;
-        public int rank;
-        public int percentile;
+    /**
+     * Pairs typed fewer times than this don't have enough data for their timings to tell us
+     * anything.
+     */
+    private static final int MIN_SLOW_PAIR_COUNT = 10;
+
+    /**
+     * Key counts for the current {@link #period}.
+     */
+    public final RankedCounts keyCounts = new RankedCounts();
+
+    /**
+     * What our {@link #keyCounts} currently contain. Each ranking has one of these so that
+     * updates only need to re-rank what has changed since last time.
+     */
+    private Map<String, Integer> rankedKeyCounts = Collections.emptyMap();
+
+    /**
+     * Which period the {@link #keyCounts} are for, null means all time.
+     */
+    @Nullable
+    private StatsTracker.Period period;
+
+    public final RankedCounts pairCounts = new RankedCounts();
+    private Map<String, Integer> rankedPairCounts = Collections.emptyMap();
+
+    /**
+     * Median intervals for all pairs.
+     */
+    public final Map<String, Integer> pairMedianMs = new HashMap<>();
+
+    /**
+     * Median intervals for pairs typed at least {@link #MIN_SLOW_PAIR_COUNT} times, slowest
+     * first.
+     */
+    public final RankedCounts slowPairs = new RankedCounts();
+    private Map<String, Integer> rankedSlowPairs = Collections.emptyMap();
+
+    public final RankedCounts wordCounts = new RankedCounts();
+    private Map<String, Integer> rankedWordCounts = Collections.emptyMap();
+
+    /**
+     * Stats read from disk by {@link #refresh(Context)}.
+     */
+    private final MutableLiveData<StatsTracker.Stats> loadedStats = new MutableLiveData<>();
+
+    /**
+     * The stats our rankings are currently based on.
+     */
+    private final MediatorLiveData<StatsTracker.Stats> stats = new MediatorLiveData<>();
+
+    public StatsViewModel() {
+        stats.addSource(loadedStats, this::update);
+        stats.addSource(StatsTracker.getPublishedStats(), this::update);
+    }
+
+    /**
+     * Changes whenever the rankings have been updated. The rankings are only kept up to date
+     * while this is being observed.
+     */
+    public LiveData<StatsTracker.Stats> getStats() {
+        return stats;
     }
-    public final List<Entry> entries = new ArrayList<>();
 
     public void populate(Context context) {
-        if (!entries.isEmpty()) {
+        if (stats.getValue() != null) {
             return;
         }
 
         refresh(context);
     }
 
+    /**
+     * Re-read all stats in the background. Only counts that have changed since the last refresh
+     * need re-ranking.
+     */
     public void refresh(Context context) {
-        final Map<String, Integer> counts;
-        try {
-            counts = StatsTracker.getCounts(context);
-        } catch (IOException e) {
-            Timber.w(e, "Failed to read key stats");
+        Context applicationContext = context.getApplicationContext();
+        BackgroundExecutor.get().execute(
+            () -> loadedStats.postValue(StatsTracker.readStats(applicationContext)));
+    }
+
+    /**
+     * Switch the {@link #keyCounts} to some other time period.
+     *
+     * @param period null means all time
+     */
+    public void setPeriod(@Nullable StatsTracker.Period period) {
+        if (period == this.period) {
+            return;
+        }
+
+        this.period = period;
+
+        // Everything will be different, starting over is cheaper than re-ranking
+        keyCounts.clear();
+        rankedKeyCounts = Collections.emptyMap();
+
+        StatsTracker.Stats currentStats = stats.getValue();
+        if (currentStats != null) {
+            updateKeys(currentStats);
+        }
+    }
+
+    public static String getDisplayName(String name) {
+        if (" ".equals(name)) {
+            return "space";
+        }
+        if ("editor action".equals(name)) {
+            return "action";
+        }
+        return name;
+    }
+
+    private void update(@Nullable StatsTracker.Stats newStats) {
+        if (newStats == null) {
             return;
         }
 
-        List<Map.Entry<String, Integer>> storedEntries = new ArrayList<>(counts.entrySet());
-        Collections.sort(storedEntries, (o1, o2) -> -Integer.compare(o1.getValue(), o2.getValue()));
-        int totalKeysCount = 0;
-        for (Map.Entry<String, Integer> entry: storedEntries) {
-            totalKeysCount += entry.getValue();
+        StatsTracker.Stats currentStats = stats.getValue();
+        if (currentStats != null && newStats.collectedNanos < currentStats.collectedNanos) {
+            // Loading from disk can finish after something newer has been published
+            return;
         }
 
-        entries.clear();
-        int rank = 1;
-        int countSoFar = 0;
-        for (Map.Entry<String, Integer> countEntry: storedEntries) {
-            Entry statsEntry = new Entry();
-            statsEntry.rank = rank++;
+        updateKeys(newStats);
+        updateKeyPairs(newStats.keyPairs);
+        update(wordCounts, rankedWordCounts, newStats.topWords);
+        rankedWordCounts = newStats.topWords;
+
+        stats.setValue(newStats);
+    }
+
+    /**
+     * Update a ranking to match a new set of counts. Only the counts that differ from the old ones
+     * get re-ranked, usually that's just a few.
+     *
+     * @param oldCounts What the ranking currently contains
+     */
+    private static void update(
+        RankedCounts ranking, Map<String, Integer> oldCounts, Map<String, Integer> newCounts)
+    {
+        for (String key : oldCounts.keySet()) {
+            if (!newCounts.containsKey(key)) {
+                ranking.remove(key);
+            }
+        }
 
-            statsEntry.name = countEntry.getKey();
-            if (" ".equals(statsEntry.name)) {
-                statsEntry.name = "space";
+        for (Map.Entry<String, Integer> entry : newCounts.entrySet()) {
+            if (!entry.getValue().equals(oldCounts.get(entry.getKey()))) {
+                ranking.set(entry.getKey(), entry.getValue());
             }
-            if ("editor action".equals(statsEntry.name)) {
-                statsEntry.name = "action";
+        }
+    }
+
+    private void updateKeys(StatsTracker.Stats newStats) {
+        Map<String, Integer> counts;
+        if (period == null) {
+            counts = newStats.counts;
+        } else {
+            counts = newStats.periodCounts.get(period);
+            if (counts == null) {
+                Timber.w("No counts for period %s", period);
+                return;
             }
+        }
 
-            statsEntry.count = countEntry.getValue();
-            countSoFar += statsEntry.count;
-            statsEntry.percentile = (100 * countSoFar) / totalKeysCount;
+        update(keyCounts, rankedKeyCounts, counts);
+        rankedKeyCounts = counts;
+    }
 
-            entries.add(statsEntry);
+    private void updateKeyPairs(List<StatsTracker.KeyPair> keyPairs) {
+        Map<String, Integer> counts = new HashMap<>();
+        Map<String, Integer> slowCandidates = new HashMap<>();
+        pairMedianMs.clear();
+        for (StatsTracker.KeyPair keyPair : keyPairs) {
+            String name = getDisplayName(keyPair.from) + " → " + getDisplayName(keyPair.to);
+            counts.put(name, keyPair.count);
+            pairMedianMs.put(name, keyPair.medianMs);
+            if (keyPair.count >= MIN_SLOW_PAIR_COUNT) {
+                slowCandidates.put(name, keyPair.medianMs);
+            }
         }
+
+        update(pairCounts, rankedPairCounts, counts);
+        rankedPairCounts = counts;
+        update(slowPairs, rankedSlowPairs, slowCandidates);
+        rankedSlowPairs = slowCandidates;
     }
 }
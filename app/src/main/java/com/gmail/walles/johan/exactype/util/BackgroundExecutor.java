@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.Nullable;
+
+/**
+ * One background thread shared by everything that needs to do occasional work off the main
+ * thread, like writing stats to disk.
+ * <p>
+ * The thread goes away when there's nothing to do, so an idle keyboard doesn't keep any thread
+ * around.
+ */
+public class BackgroundExecutor {
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    @Nullable
+    private static ScheduledThreadPoolExecutor instance;
+
+    private BackgroundExecutor() {
+        // Use get() instead
+    }
+
+    public static synchronized ScheduledExecutorService get() {
+        if (instance == null) {
+            instance = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "Exactype background");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+            instance.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+            instance.allowCoreThreadTimeOut(true);
+
+            // Don't keep the thread alive for cancelled tasks
+            instance.setRemoveOnCancelPolicy(true);
+        }
+
+        return instance;
+    }
+}
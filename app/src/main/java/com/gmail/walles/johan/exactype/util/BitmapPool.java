@@ -0,0 +1,128 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Bitmaps we're done with, kept around for re-use so that size changes don't need new large
+ * allocations.
+ * <p>
+ * Pooled bitmaps are {@link Bitmap#reconfigure(int, int, Bitmap.Config) reconfigured} in place
+ * to whatever size is requested next, as long as their allocation is large enough.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+public class BitmapPool implements CacheManager.Entry {
+    private static final int MAX_POOLED_BITMAPS = 2;
+
+    private final CacheManager cacheManager;
+    private final List<Bitmap> pooled = new ArrayList<>(MAX_POOLED_BITMAPS);
+
+    public BitmapPool(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    /**
+     * Get a mutable bitmap, re-using a pooled one if possible. The contents are undefined.
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        long neededBytes = (long)width * height * getBytesPerPixel(config);
+
+        // Pick the smallest bitmap that is large enough
+        Bitmap best = null;
+        for (Bitmap candidate : pooled) {
+            if (candidate.getAllocationByteCount() < neededBytes) {
+                continue;
+            }
+            if (best == null || candidate.getAllocationByteCount() < best.getAllocationByteCount()) {
+                best = candidate;
+            }
+        }
+
+        if (best == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+
+        pooled.remove(best);
+        cacheManager.touch(this);
+
+        if (best.getWidth() != width || best.getHeight() != height || best.getConfig() != config) {
+            best.reconfigure(width, height, config);
+        }
+        return best;
+    }
+
+    /**
+     * Hand back a bitmap for re-use. The caller must not use it after this.
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+
+        if (pooled.size() >= MAX_POOLED_BITMAPS) {
+            // Keep the larger ones, they can be reconfigured into anything smaller
+            Bitmap smallest = bitmap;
+            for (Bitmap candidate : pooled) {
+                if (candidate.getAllocationByteCount() < smallest.getAllocationByteCount()) {
+                    smallest = candidate;
+                }
+            }
+            if (smallest == bitmap) {
+                return;
+            }
+            pooled.remove(smallest);
+        }
+
+        pooled.add(bitmap);
+        cacheManager.touch(this);
+    }
+
+    static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+
+    @Override
+    public long getSizeBytes() {
+        long sizeBytes = 0;
+        for (Bitmap bitmap : pooled) {
+            sizeBytes += bitmap.getAllocationByteCount();
+        }
+        return sizeBytes;
+    }
+
+    @Override
+    public void drop() {
+        Timber.d("Dropping %d pooled bitmaps", pooled.size());
+
+        // Not recycling, just letting go
+        pooled.clear();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import androidx.annotation.Nullable;
+import timber.log.Timber;
+
+/**
+ * Keeps all our rebuildable caches within one shared byte budget.
+ * <p>
+ * Caches {@link #touch(Entry) touch} their entries when using them. When we go over budget, or
+ * when the system asks us to {@link #trimToSize(long) trim}, the least recently used entries are
+ * {@link Entry#drop() dropped}.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+public class CacheManager {
+    /**
+     * Something that can be thrown away and rebuilt on demand.
+     */
+    public interface Entry {
+        /**
+         * @return Approximately how much memory this entry is currently holding on to
+         */
+        long getSizeBytes();
+
+        /**
+         * Release whatever this entry is holding on to. The entry will be rebuilt on next use.
+         */
+        void drop();
+    }
+
+    /**
+     * Entries with their sizes as of their last touch, least recently used first.
+     */
+    private final LinkedHashMap<Entry, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long budgetBytes;
+    private long usageBytes;
+
+    public CacheManager(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    public void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        evict(budgetBytes, null);
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public long getUsageBytes() {
+        return usageBytes;
+    }
+
+    /**
+     * Mark an entry as most recently used, and update our idea of its size.
+     * <p>
+     * If this puts us over budget, other entries get dropped. The touched entry is never dropped
+     * by this call, even if it alone is over budget.
+     */
+    public void touch(Entry entry) {
+        Long oldSize = entries.put(entry, entry.getSizeBytes());
+        if (oldSize != null) {
+            usageBytes -= oldSize;
+        }
+        //noinspection ConstantConditions: We just put it there
+        usageBytes += entries.get(entry);
+
+        evict(budgetBytes, entry);
+    }
+
+    /**
+     * Stop tracking an entry without dropping it.
+     */
+    public void remove(Entry entry) {
+        Long size = entries.remove(entry);
+        if (size != null) {
+            usageBytes -= size;
+        }
+    }
+
+    /**
+     * Drop least recently used entries until we use at most this many bytes.
+     */
+    public void trimToSize(long maxBytes) {
+        long before = usageBytes;
+        evict(maxBytes, null);
+        Timber.i("Cache trimmed from %dkB to %dkB", before / 1024, usageBytes / 1024);
+    }
+
+    private void evict(long maxBytes, @Nullable Entry keep) {
+        if (usageBytes <= maxBytes) {
+            return;
+        }
+
+        List<Entry> dropped = new ArrayList<>();
+        Iterator<Map.Entry<Entry, Long>> iterator = entries.entrySet().iterator();
+        while (usageBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<Entry, Long> candidate = iterator.next();
+            if (candidate.getKey() == keep) {
+                continue;
+            }
+
+            usageBytes -= candidate.getValue();
+            iterator.remove();
+            dropped.add(candidate.getKey());
+        }
+
+        // Dropping after iterating, in case an entry touches the cache while being dropped
+        for (Entry entry : dropped) {
+            entry.drop();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%d cache entries, %dkB of %dkB",
+            entries.size(), usageBytes / 1024, budgetBytes / 1024);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import android.app.ActivityManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.PowerManager;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import timber.log.Timber;
+
+/**
+ * Decides whether we should run in a lighter, low-end mode.
+ * <p>
+ * We go low-end on low RAM devices, on devices with few CPU cores, if we're dropping lots of
+ * frames, and while battery saver is on.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+public class DeviceProfile {
+    public interface Listener {
+        void onLowEndChanged(boolean isLowEnd);
+    }
+
+    private static final int LOW_END_MAX_CORES = 2;
+
+    /**
+     * Don't judge frame rates until we have seen at least this many frames.
+     */
+    private static final int MIN_FRAMES_FOR_VERDICT = 120;
+
+    /**
+     * Dropping more than this part of our frames makes us low-end.
+     */
+    private static final int SLOW_DROPPED_FRAMES_PERCENT = 20;
+
+    /**
+     * Once low-end because of dropped frames, dropping at most this part of our frames makes us
+     * recover. Lower than {@link #SLOW_DROPPED_FRAMES_PERCENT} so that we don't flip back and
+     * forth.
+     */
+    private static final int RECOVERED_DROPPED_FRAMES_PERCENT = 5;
+
+    private final Context context;
+    private final Listener listener;
+    private final boolean isLowEndHardware;
+
+    @Nullable
+    private final PowerManager powerManager;
+    private boolean isPowerSaveMode;
+
+    @Nullable
+    private BroadcastReceiver powerSaveModeReceiver;
+
+    private int frameCount;
+    private int droppedFrameCount;
+    private boolean isDroppingFrames;
+
+    public DeviceProfile(Context context, Listener listener) {
+        this.context = context;
+        this.listener = listener;
+
+        ActivityManager activityManager =
+            (ActivityManager)context.getSystemService(Context.ACTIVITY_SERVICE);
+        boolean isLowRamDevice = activityManager != null && activityManager.isLowRamDevice();
+        int cores = Runtime.getRuntime().availableProcessors();
+        isLowEndHardware = isLowEndHardware(isLowRamDevice, cores);
+
+        powerManager = (PowerManager)context.getSystemService(Context.POWER_SERVICE);
+        isPowerSaveMode = powerManager != null && powerManager.isPowerSaveMode();
+
+        Timber.i("Device profile: low RAM=%b, cores=%d, power save mode=%b",
+            isLowRamDevice, cores, isPowerSaveMode);
+    }
+
+    @VisibleForTesting
+    static boolean isLowEndHardware(boolean isLowRamDevice, int cores) {
+        return isLowRamDevice || cores <= LOW_END_MAX_CORES;
+    }
+
+    @VisibleForTesting
+    static boolean isDroppingFrames(
+        boolean wasDroppingFrames, int frameCount, int droppedFrameCount)
+    {
+        if (frameCount < MIN_FRAMES_FOR_VERDICT) {
+            return wasDroppingFrames;
+        }
+
+        int limitPercent =
+            wasDroppingFrames ? RECOVERED_DROPPED_FRAMES_PERCENT : SLOW_DROPPED_FRAMES_PERCENT;
+        return droppedFrameCount * 100L > frameCount * (long)limitPercent;
+    }
+
+    public boolean isLowEnd() {
+        return isLowEndHardware || isDroppingFrames || isPowerSaveMode;
+    }
+
+    /**
+     * True if {@link #reportFrames(int, int) frame reports} could change whether we're low-end.
+     */
+    public boolean needsFrameReports() {
+        return !isLowEndHardware && !isPowerSaveMode;
+    }
+
+    /**
+     * Start tracking battery saver changes. Until this is called we only know whether battery
+     * saver was on when we were created.
+     */
+    public void startListening() {
+        if (powerSaveModeReceiver != null || powerManager == null) {
+            return;
+        }
+
+        powerSaveModeReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                boolean wasLowEnd = isLowEnd();
+                isPowerSaveMode = powerManager.isPowerSaveMode();
+                Timber.i("Power save mode changed: %b", isPowerSaveMode);
+                notifyIfChanged(wasLowEnd);
+            }
+        };
+        context.registerReceiver(powerSaveModeReceiver,
+            new IntentFilter(PowerManager.ACTION_POWER_SAVE_MODE_CHANGED));
+    }
+
+    public void close() {
+        if (powerSaveModeReceiver == null) {
+            return;
+        }
+
+        context.unregisterReceiver(powerSaveModeReceiver);
+        powerSaveModeReceiver = null;
+    }
+
+    /**
+     * Tell us about frames rendered while the user was typing. Frames are judged in batches of
+     * at least {@link #MIN_FRAMES_FOR_VERDICT}, so that we can recover if things get better.
+     */
+    public void reportFrames(int frameCount, int droppedFrameCount) {
+        this.frameCount += frameCount;
+        this.droppedFrameCount += droppedFrameCount;
+        if (this.frameCount < MIN_FRAMES_FOR_VERDICT) {
+            // Too early to tell
+            return;
+        }
+
+        boolean wasLowEnd = isLowEnd();
+        boolean wasDroppingFrames = isDroppingFrames;
+        isDroppingFrames =
+            isDroppingFrames(wasDroppingFrames, this.frameCount, this.droppedFrameCount);
+        if (isDroppingFrames != wasDroppingFrames) {
+            Timber.i("Dropped %d of %d frames, dropping frames: %b",
+                this.droppedFrameCount, this.frameCount, isDroppingFrames);
+        }
+
+        // Judge the next batch on its own
+        this.frameCount = 0;
+        this.droppedFrameCount = 0;
+
+        notifyIfChanged(wasLowEnd);
+    }
+
+    private void notifyIfChanged(boolean wasLowEnd) {
+        boolean isLowEnd = isLowEnd();
+        if (isLowEnd != wasLowEnd) {
+            listener.onLowEndChanged(isLowEnd);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Counts durations into a fixed set of buckets, and keeps track of how many were over budget.
+ */
+public class FrameTimeHistogram {
+    /**
+     * One frame at 60Hz.
+     */
+    public static final long DEFAULT_BUDGET_NANOS = 16_666_667;
+
+    /**
+     * Bucket upper limits in milliseconds. There's an extra bucket at the end for everything
+     * slower than the last limit.
+     */
+    private static final int[] BUCKET_LIMITS_MS = {2, 4, 8, 12, 16, 24, 33, 50, 100};
+
+    private final String name;
+    private long budgetNanos;
+    private final int[] bucketCounts = new int[BUCKET_LIMITS_MS.length + 1];
+    private int count;
+    private int overBudgetCount;
+
+    public FrameTimeHistogram(String name) {
+        this(name, DEFAULT_BUDGET_NANOS);
+    }
+
+    public FrameTimeHistogram(String name, long budgetNanos) {
+        this.name = name;
+        this.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * Change what counts as over budget from now on.
+     */
+    public void setBudgetNanos(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+
+    public void record(long durationNanos) {
+        count++;
+        if (durationNanos > budgetNanos) {
+            overBudgetCount++;
+        }
+
+        long durationMs = durationNanos / 1_000_000;
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_MS.length && durationMs >= BUCKET_LIMITS_MS[bucket]) {
+            bucket++;
+        }
+        bucketCounts[bucket]++;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getOverBudgetCount() {
+        return overBudgetCount;
+    }
+
+    /**
+     * Add all non-zero counts to a map and reset this histogram.
+     * <p>
+     * Keys are on the form "keyboard draw 4-8ms", "keyboard draw 100+ms" and
+     * "keyboard draw over budget".
+     */
+    public void drainInto(Map<String, Integer> counts) {
+        for (int i = 0; i < bucketCounts.length; i++) {
+            if (bucketCounts[i] == 0) {
+                continue;
+            }
+
+            addCount(counts, name + " " + getBucketName(i), bucketCounts[i]);
+        }
+
+        if (overBudgetCount > 0) {
+            addCount(counts, name + " over budget", overBudgetCount);
+        }
+
+        Arrays.fill(bucketCounts, 0);
+        count = 0;
+        overBudgetCount = 0;
+    }
+
+    private static void addCount(Map<String, Integer> counts, String key, int count) {
+        Integer oldCount = counts.get(key);
+        counts.put(key, oldCount == null ? count : oldCount + count);
+    }
+
+    private static String getBucketName(int bucket) {
+        if (bucket == BUCKET_LIMITS_MS.length) {
+            return BUCKET_LIMITS_MS[bucket - 1] + "+ms";
+        }
+
+        int lowerLimit = bucket == 0 ? 0 : BUCKET_LIMITS_MS[bucket - 1];
+        return lowerLimit + "-" + BUCKET_LIMITS_MS[bucket] + "ms";
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import android.view.Choreographer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Keeps track of how long our views take to draw, and how often we miss frames while the user is
+ * touching the keyboard.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+public class FrameTimeTracker {
+    /**
+     * Assumed until we're told otherwise.
+     */
+    private static final float DEFAULT_REFRESH_RATE_HZ = 60;
+
+    /**
+     * Frame intervals longer than this many refresh periods count as dropped frames. Vsync
+     * timestamps jitter, so an interval just over one period doesn't mean we missed anything.
+     */
+    private static final float DROPPED_FRAME_PERIODS = 1.5f;
+
+    /**
+     * By name. Views get re-created on every configuration change, and they all share the
+     * histograms for their names.
+     */
+    private final Map<String, FrameTimeHistogram> histograms = new HashMap<>();
+
+    /**
+     * Intervals between consecutive frames while we're {@link #startMonitoringFrames() monitoring}.
+     * Anything over budget here is a dropped frame.
+     */
+    private final FrameTimeHistogram frameIntervals = getHistogram("frame interval");
+
+    @Nullable
+    private Choreographer choreographer;
+
+    private boolean isMonitoringFrames;
+    private long lastFrameTimeNanos;
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!isMonitoringFrames) {
+                return;
+            }
+
+            if (lastFrameTimeNanos != 0) {
+                frameIntervals.record(frameTimeNanos - lastFrameTimeNanos);
+            }
+            lastFrameTimeNanos = frameTimeNanos;
+
+            //noinspection ConstantConditions: Can't be null while we're monitoring
+            choreographer.postFrameCallback(this);
+        }
+    };
+
+    public FrameTimeTracker() {
+        setRefreshRate(DEFAULT_REFRESH_RATE_HZ);
+    }
+
+    /**
+     * Tell us how often the display refreshes, this decides what counts as a dropped frame.
+     */
+    public void setRefreshRate(float refreshRateHz) {
+        frameIntervals.setBudgetNanos(getDroppedFrameBudgetNanos(refreshRateHz));
+    }
+
+    @VisibleForTesting
+    static long getDroppedFrameBudgetNanos(float refreshRateHz) {
+        if (!(refreshRateHz > 0)) {
+            // Unknown or broken, this also catches NaN
+            refreshRateHz = DEFAULT_REFRESH_RATE_HZ;
+        }
+        return (long)(DROPPED_FRAME_PERIODS * 1_000_000_000L / refreshRateHz);
+    }
+
+    /**
+     * Get the histogram with a given name, creating it if needed. Histograms are included in what
+     * {@link #drain()} returns.
+     */
+    public FrameTimeHistogram getHistogram(String name) {
+        FrameTimeHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new FrameTimeHistogram(name);
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Start recording frame intervals. Frames are only monitored on request since doing it all
+     * the time would keep waking up the CPU on every vsync.
+     */
+    public void startMonitoringFrames() {
+        if (isMonitoringFrames) {
+            return;
+        }
+
+        if (choreographer == null) {
+            choreographer = Choreographer.getInstance();
+        }
+
+        isMonitoringFrames = true;
+        lastFrameTimeNanos = 0;
+        choreographer.postFrameCallback(frameCallback);
+    }
+
+    public void stopMonitoringFrames() {
+        if (!isMonitoringFrames) {
+            return;
+        }
+
+        isMonitoringFrames = false;
+
+        //noinspection ConstantConditions: Set up by startMonitoringFrames()
+        choreographer.removeFrameCallback(frameCallback);
+    }
+
+    /**
+     * Number of frame intervals recorded since the last {@link #drain()}.
+     */
+    public int getFrameCount() {
+        return frameIntervals.getCount();
+    }
+
+    /**
+     * Number of dropped frames since the last {@link #drain()}.
+     */
+    public int getDroppedFrameCount() {
+        return frameIntervals.getOverBudgetCount();
+    }
+
+    /**
+     * Get all counts recorded since the last drain, and reset all histograms.
+     */
+    public Map<String, Integer> drain() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (FrameTimeHistogram histogram : histograms.values()) {
+            histogram.drainInto(counts);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free, fixed capacity queue of ints, for one producer thread and one consumer thread.
+ * <p>
+ * Neither side ever blocks. If the consumer falls behind, {@link #offer(int)} fails.
+ */
+public class IntRingBuffer {
+    private final int[] buffer;
+    private final int mask;
+
+    /**
+     * Next position to read from, only written by the consumer.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Next position to write to, only written by the producer.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity Must be a power of two
+     */
+    public IntRingBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+
+        buffer = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Producer side.
+     *
+     * @return false if the buffer was full
+     */
+    public boolean offer(int value) {
+        long currentTail = tail.get();
+        if (currentTail - head.get() >= buffer.length) {
+            return false;
+        }
+
+        buffer[(int)currentTail & mask] = value;
+
+        // Publishes the value written above to the consumer
+        tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side. Move as many values as fit from this buffer into an array.
+     *
+     * @return The number of values moved
+     */
+    public int drainTo(int[] target) {
+        long currentHead = head.get();
+        int count = (int)Math.min(tail.get() - currentHead, target.length);
+        for (int i = 0; i < count; i++) {
+            target[i] = buffer[(int)(currentHead + i) & mask];
+        }
+
+        // Tells the producer these slots are free again
+        head.lazySet(currentHead + count);
+        return count;
+    }
+
+    /**
+     * Safe to call from either side, but only a snapshot.
+     */
+    public int size() {
+        // Head first, it never passes the tail
+        long currentHead = head.get();
+        return (int)(tail.get() - currentHead);
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+}
@@ -36,30 +36,29 @@ import android.util.Log;
 
 import com.gmail.walles.johan.exactype.BuildConfig;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import timber.log.Timber;
 
 public class LoggingUtils {
+    private static final int PERF_EVENT_CAPACITY = 256;
+
     /**
-     * If we ever go back to Crashlytics, this class should be replaced by its Crashlytics
-     * counterpart.
+     * Let perf events accumulate for this long before logging them.
      */
-    public static class CustomEvent {
-        private final StringBuilder builder = new StringBuilder();
+    private static final long PERF_EVENT_DRAIN_DELAY_MS = 1000;
 
-        public CustomEvent(String name) {
-            builder.append("Name: ").append(name);
-        }
+    /**
+     * Only debug builds turn perf events into text. In release builds they stay in the
+     * {@link #perfEvents} buffer.
+     */
+    private static final boolean LOG_PERF_EVENTS =
+        BuildConfig.DEBUG && EmulatorUtils.IS_ON_ANDROID;
 
-        public CustomEvent putCustomAttribute(String name, float value) {
-            builder.append("  ").append(name).append(": ").append(value);
-            return this;
-        }
+    private static final PerfEventLog perfEvents = new PerfEventLog(PERF_EVENT_CAPACITY);
 
-        @Override
-        public String toString() {
-            return "CustomEvent: " + builder.toString();
-        }
-    }
+    private static final AtomicBoolean perfEventDrainScheduled = new AtomicBoolean();
 
     private static Class<Timber> initializedLoggingClass = null;
 
@@ -67,9 +66,44 @@ public class LoggingUtils {
         // Don't let people instantiate this class
     }
 
-    public static void logCustom(CustomEvent event) {
-        if (EmulatorUtils.IS_ON_ANDROID) {
-            Timber.d("Custom Event: %s", event.toString());
+    /**
+     * Record a perf event. Never allocates, so this is fine to call on every keystroke.
+     */
+    public static void logPerf(PerfEvent event, float value) {
+        perfEvents.record(event, value);
+        schedulePerfEventDrain();
+    }
+
+    public static void logPerf(PerfEvent event, float value0, float value1) {
+        perfEvents.record(event, value0, value1);
+        schedulePerfEventDrain();
+    }
+
+    public static void logPerf(PerfEvent event, float value0, float value1, float value2) {
+        perfEvents.record(event, value0, value1, value2);
+        schedulePerfEventDrain();
+    }
+
+    private static void schedulePerfEventDrain() {
+        if (!LOG_PERF_EVENTS) {
+            return;
+        }
+        if (!perfEventDrainScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        BackgroundExecutor.get().schedule(() -> {
+            // Clear first, anything recorded while draining should schedule another drain
+            perfEventDrainScheduled.set(false);
+            drainPerfEvents();
+        }, PERF_EVENT_DRAIN_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void drainPerfEvents() {
+        int dropped = perfEvents.drainTo(
+            (event, values) -> Timber.d("Perf event: %s", event.format(values)));
+        if (dropped > 0) {
+            Timber.w("%d perf events dropped before getting logged", dropped);
         }
     }
 
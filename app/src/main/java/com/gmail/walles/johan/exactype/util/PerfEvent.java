@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+/**
+ * Everything we record in the {@link PerfEventLog}, with the names of their attributes.
+ */
+public enum PerfEvent {
+    LOW_END_MODE("Perf", "Low-end mode"),
+    TIME_TO_FIRST_FRAME("Perf", "Time to first frame ms"),
+    COMMIT_CHAR("Perf", "Commit char ms"),
+    DELETE_CHAR("Perf", "Delete char ms"),
+    DELETE_WORD("Perf", "Delete word ms"),
+    DELETE_SELECTION("Perf", "Delete selection ms"),
+    COMMIT_NEWLINE("Perf", "Commit newline ms"),
+    PERFORM_EDITOR_ACTION("Perf", "Perform editor action ms"),
+    TRIM_MEMORY("Perf", "Trim memory level", "Cache kB before trim", "Cache kB after trim"),
+    TOUCH("Touch", "Horizontal distance (mm)", "Vertical distance (mm)"),
+    HORIZONTAL_SWIPE("Horizontal Swipe", "Distance (mm)"),
+    VERTICAL_SWIPE("Vertical Swipe", "Distance (mm)");
+
+    static final int MAX_ATTRIBUTE_COUNT = 3;
+
+    private final String eventName;
+    private final String[] attributeNames;
+
+    PerfEvent(String eventName, String ... attributeNames) {
+        if (attributeNames.length > MAX_ATTRIBUTE_COUNT) {
+            throw new IllegalArgumentException("Too many attributes: " + attributeNames.length);
+        }
+
+        this.eventName = eventName;
+        this.attributeNames = attributeNames;
+    }
+
+    /**
+     * Describe one occurrence of this event in text.
+     *
+     * @param values Attribute values, in the order they were recorded
+     */
+    public String format(float[] values) {
+        StringBuilder builder = new StringBuilder("Name: ").append(eventName);
+        for (int i = 0; i < attributeNames.length; i++) {
+            builder.append("  ").append(attributeNames[i]).append(": ").append(values[i]);
+        }
+        return builder.toString();
+    }
+}
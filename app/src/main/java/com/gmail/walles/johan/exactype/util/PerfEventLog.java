@@ -0,0 +1,149 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import androidx.annotation.GuardedBy;
+
+/**
+ * Fixed capacity ring buffer of {@link PerfEvent}s and their attribute values.
+ * <p>
+ * Recording an event just stores its ordinal and its values in preallocated arrays, so it never
+ * allocates. Events are only turned into text if some {@link Sink} drains them. If nobody does,
+ * new events replace the oldest ones.
+ * <p>
+ * Thread safe, events can be recorded from any thread.
+ */
+public class PerfEventLog {
+    public interface Sink {
+        /**
+         * @param values The event's attribute values. The array gets reused, so don't keep it
+         *               around after returning.
+         */
+        void onEvent(PerfEvent event, float[] values);
+    }
+
+    private static final PerfEvent[] EVENTS = PerfEvent.values();
+
+    private static final int STRIDE = PerfEvent.MAX_ATTRIBUTE_COUNT;
+
+    private final int mask;
+
+    @GuardedBy("this")
+    private final int[] events;
+
+    /**
+     * {@link #STRIDE} values per event.
+     */
+    @GuardedBy("this")
+    private final float[] values;
+
+    /**
+     * Index of the oldest event.
+     */
+    @GuardedBy("this")
+    private int head;
+
+    @GuardedBy("this")
+    private int size;
+
+    /**
+     * Events replaced before being drained.
+     */
+    @GuardedBy("this")
+    private int droppedCount;
+
+    /**
+     * @param capacity Must be a power of two
+     */
+    public PerfEventLog(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+
+        events = new int[capacity];
+        values = new float[capacity * STRIDE];
+        mask = capacity - 1;
+    }
+
+    public synchronized void record(PerfEvent event, float value) {
+        int offset = append(event);
+        values[offset] = value;
+    }
+
+    public synchronized void record(PerfEvent event, float value0, float value1) {
+        int offset = append(event);
+        values[offset] = value0;
+        values[offset + 1] = value1;
+    }
+
+    public synchronized void record(PerfEvent event, float value0, float value1, float value2) {
+        int offset = append(event);
+        values[offset] = value0;
+        values[offset + 1] = value1;
+        values[offset + 2] = value2;
+    }
+
+    /**
+     * Make room for one more event, replacing the oldest one if we're full.
+     *
+     * @return Where to put the new event's values
+     */
+    @GuardedBy("this")
+    private int append(PerfEvent event) {
+        if (size == events.length) {
+            head = (head + 1) & mask;
+            size--;
+            droppedCount++;
+        }
+
+        int index = (head + size) & mask;
+        size++;
+        events[index] = event.ordinal();
+        return index * STRIDE;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Hand all events over to a sink, oldest first. The sink is called without holding our lock,
+     * so recording doesn't have to wait for any formatting.
+     *
+     * @return The number of events that were replaced since the last drain without being drained
+     */
+    public int drainTo(Sink sink) {
+        float[] eventValues = new float[STRIDE];
+        while (true) {
+            PerfEvent event;
+            synchronized (this) {
+                if (size == 0) {
+                    int dropped = droppedCount;
+                    droppedCount = 0;
+                    return dropped;
+                }
+
+                event = EVENTS[events[head]];
+                System.arraycopy(values, head * STRIDE, eventValues, 0, STRIDE);
+                head = (head + 1) & mask;
+                size--;
+            }
+
+            sink.onEvent(event, eventValues);
+        }
+    }
+}
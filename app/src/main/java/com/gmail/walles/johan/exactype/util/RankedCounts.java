@@ -0,0 +1,252 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts by key, kept sorted by count as they change.
+ * <p>
+ * Changing a count only moves that key past the keys it overtakes, so when few counts change
+ * between updates, updating is cheap. Looking up what's at some rank is constant time, and
+ * cumulative counts for percentiles are kept in a Fenwick tree so they take logarithmic time.
+ * <p>
+ * Not thread safe.
+ */
+public class RankedCounts {
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Keys and counts, by rank. Highest count first.
+     */
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Ranks by key.
+     */
+    private final Map<String, Integer> ranks = new HashMap<>();
+
+    /**
+     * Fenwick tree over {@link #counts}, one based.
+     */
+    private long[] cumulative = new long[INITIAL_CAPACITY + 1];
+
+    private long total;
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param rank Zero based, zero is the highest count
+     */
+    public String getKey(int rank) {
+        checkRank(rank);
+        return keys[rank];
+    }
+
+    /**
+     * @param rank Zero based, zero is the highest count
+     */
+    public int getCount(int rank) {
+        checkRank(rank);
+        return counts[rank];
+    }
+
+    /**
+     * @return 0 for unknown keys
+     */
+    public int getCount(String key) {
+        Integer rank = ranks.get(key);
+        return rank == null ? 0 : counts[rank];
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * The sum of all counts from the top down to and including this rank.
+     */
+    public long getCumulativeCount(int rank) {
+        checkRank(rank);
+
+        long sum = 0;
+        for (int i = rank + 1; i > 0; i -= i & -i) {
+            sum += cumulative[i];
+        }
+        return sum;
+    }
+
+    /**
+     * How large a percentage of the total that is counted at this rank or above.
+     */
+    public int getPercentile(int rank) {
+        if (total == 0) {
+            return 0;
+        }
+        return (int)((100 * getCumulativeCount(rank)) / total);
+    }
+
+    private void checkRank(int rank) {
+        if (rank < 0 || rank >= size) {
+            throw new IndexOutOfBoundsException("Rank " + rank + " not in [0, " + size + ")");
+        }
+    }
+
+    /**
+     * Set the count for a key, adding it if needed.
+     */
+    public void set(String key, int count) {
+        Integer boxedRank = ranks.get(key);
+        if (boxedRank == null) {
+            if (count == 0) {
+                return;
+            }
+            boxedRank = append(key);
+        }
+
+        int rank = boxedRank;
+        int oldCount = counts[rank];
+        if (count > oldCount) {
+            moveUp(rank, key, count);
+        } else if (count < oldCount) {
+            moveDown(rank, key, count);
+        }
+    }
+
+    /**
+     * Forget about a key. Does nothing for unknown keys.
+     */
+    public void remove(String key) {
+        Integer rank = ranks.get(key);
+        if (rank == null) {
+            return;
+        }
+
+        // Move it last, then drop it
+        moveDown(rank, key, Integer.MIN_VALUE);
+        setAt(size - 1, null, 0);
+        ranks.remove(key);
+        size--;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(counts, 0, size, 0);
+        Arrays.fill(cumulative, 0);
+        ranks.clear();
+        size = 0;
+        total = 0;
+    }
+
+    /**
+     * Add a key with a zero count last.
+     *
+     * @return The new key's rank
+     */
+    private int append(String key) {
+        if (size == keys.length) {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            rebuildCumulative(capacity);
+        }
+
+        keys[size] = key;
+        ranks.put(key, size);
+        return size++;
+    }
+
+    private void rebuildCumulative(int capacity) {
+        cumulative = new long[capacity + 1];
+        for (int i = 1; i <= size; i++) {
+            cumulative[i] += counts[i - 1];
+            int parent = i + (i & -i);
+            if (parent <= capacity) {
+                cumulative[parent] += cumulative[i];
+            }
+        }
+    }
+
+    /**
+     * Put a key and a count at some rank, keeping the cumulative counts in sync.
+     */
+    private void setAt(int rank, String key, int count) {
+        long delta = (long)count - counts[rank];
+        for (int i = rank + 1; i < cumulative.length; i += i & -i) {
+            cumulative[i] += delta;
+        }
+        total += delta;
+
+        counts[rank] = count;
+        keys[rank] = key;
+        if (key != null) {
+            ranks.put(key, rank);
+        }
+    }
+
+    /**
+     * The count at some rank has increased, move it up past all lower counts.
+     */
+    private void moveUp(int rank, String key, int count) {
+        // Binary search for the first rank with a lower count
+        int low = 0;
+        int high = rank;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (counts[middle] < count) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+
+        for (int i = rank; i > low; i--) {
+            setAt(i, keys[i - 1], counts[i - 1]);
+        }
+        setAt(low, key, count);
+    }
+
+    /**
+     * The count at some rank has decreased, move it down past all higher counts.
+     */
+    private void moveDown(int rank, String key, int count) {
+        // Binary search for the last rank with a higher count
+        int low = rank;
+        int high = size - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (counts[middle] > count) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        for (int i = rank; i < low; i++) {
+            setAt(i, keys[i + 1], counts[i + 1]);
+        }
+
+        // Never store our removal marker count
+        setAt(low, key, Math.max(count, 0));
+    }
+}
@@ -16,9 +16,12 @@
 
 package com.gmail.walles.johan.exactype;
 
+import android.text.InputType;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
 
+import com.gmail.walles.johan.exactype.activities.StatsTracker;
+
 import org.hamcrest.CoreMatchers;
 import org.hamcrest.collection.IsEmptyCollection;
 import org.junit.Assert;
@@ -235,4 +238,24 @@ public class ExactypeTest {
 
         Mockito.verify(inputConnection).performEditorAction(EditorInfo.IME_ACTION_SEARCH);
     }
+
+    @Test
+    public void testPasswordFieldBeforeStartupFinished() {
+        Exactype exactype = new Exactype() {
+            @Override
+            public void enqueue(Runnable runnable) {
+                runnable.run();
+            }
+        };
+
+        // Cold start, input starts in a password field before the stats tracker is up
+        final EditorInfo editorInfo = new EditorInfo();
+        editorInfo.inputType = InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD;
+        exactype.updatePrivateInput(editorInfo);
+
+        StatsTracker statsTracker = Mockito.mock(StatsTracker.class);
+        exactype.setStatsTracker(statsTracker);
+
+        Mockito.verify(statsTracker).setPrivateInput(true);
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype;
+
+import com.gmail.walles.johan.exactype.util.LoggingUtils;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+public class FontMetricsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void beforeClass() {
+        LoggingUtils.setUpLogging();
+    }
+
+    @Test
+    public void testSaveLoad() {
+        File file = new File(folder.getRoot(), "metrics.txt");
+        FontMetrics.save(file, new FontMetrics("key", 70, 55.5f, 610.5f, 35.25f));
+
+        FontMetrics loaded = FontMetrics.load(file, "key");
+        Assert.assertNotNull(loaded);
+        Assert.assertEquals(70, loaded.fontSize100HeightPx);
+        Assert.assertEquals(55.5f, loaded.fontSize100CharWidthPx, 0f);
+        Assert.assertEquals(610.5f, loaded.fontSize100LongestRowLength, 0f);
+        Assert.assertEquals(35.25f, loaded.fontSize100VerticalCenterOffset, 0f);
+    }
+
+    @Test
+    public void testLoadOtherKey() {
+        File file = new File(folder.getRoot(), "metrics.txt");
+        FontMetrics.save(file, new FontMetrics("key", 70, 55.5f, 610.5f, 35.25f));
+
+        Assert.assertNull(FontMetrics.load(file, "some other key"));
+    }
+
+    @Test
+    public void testLoadNoFile() {
+        Assert.assertNull(FontMetrics.load(new File(folder.getRoot(), "doesnotexist"), "key"));
+    }
+
+    @Test
+    public void testLoadTruncated() throws IOException {
+        File file = new File(folder.getRoot(), "metrics.txt");
+        try (FileWriter out = new FileWriter(file)) {
+            out.write("key\n70\n");
+        }
+
+        Assert.assertNull(FontMetrics.load(file, "key"));
+    }
+}
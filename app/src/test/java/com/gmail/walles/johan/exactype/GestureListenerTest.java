@@ -25,6 +25,9 @@ public class GestureListenerTest {
         Mockito.when(
             keyCoordinator.getClosestKey(Mockito.anyFloat(), Mockito.anyFloat())).
             thenReturn(key);
+        Mockito.when(
+            keyCoordinator.getClosestKeyInfo(Mockito.anyFloat(), Mockito.anyFloat())).
+            thenReturn(new KeyCoordinator.KeyInfo(0, 0, key));
         gestureListener.setKeyCoordinator(keyCoordinator);
     }
 
@@ -113,5 +116,21 @@ public class GestureListenerTest {
 
         testMe.onLongPressUp(5f, 6f);
         Mockito.verify(exactype).onKeyTapped('x');
+        Mockito.verify(exactype, Mockito.never()).onKeyTouched(
+            Mockito.anyChar(), Mockito.anyFloat(), Mockito.anyFloat());
+    }
+
+    @Test
+    public void testOnSingleTapReportsOffset() {
+        Exactype exactype = Mockito.mock(Exactype.class);
+        GestureListener testMe = new GestureListener(exactype);
+        KeyCoordinator keyCoordinator = Mockito.mock(KeyCoordinator.class);
+        Mockito.when(keyCoordinator.getClosestKeyInfo(12f, 17f)).
+            thenReturn(new KeyCoordinator.KeyInfo(10, 20, 'x'));
+        testMe.setKeyCoordinator(keyCoordinator);
+
+        testMe.onSingleTap(12f, 17f);
+        Mockito.verify(exactype).onKeyTouched('x', 2f, -3f);
+        Mockito.verify(exactype).onKeyTapped('x');
     }
 }
@@ -45,6 +45,27 @@ public class KeyCoordinatorTest {
         });
     }
 
+    @Test
+    public void testResizeBackAndForth() {
+        KeyCoordinator testMe = new KeyCoordinator(new String[]{"AB", "CD"});
+        testMe.setSize(200, 100);
+        testMe.setSize(100, 200);
+        Assert.assertArrayEquals(new KeyCoordinator.KeyInfo[] {
+            new KeyCoordinator.KeyInfo(25, 50, 'A'),
+            new KeyCoordinator.KeyInfo(75, 50, 'B'),
+            new KeyCoordinator.KeyInfo(25, 150, 'C'),
+            new KeyCoordinator.KeyInfo(75, 150, 'D'),
+        }, testMe.getKeys());
+
+        testMe.setSize(200, 100);
+        Assert.assertArrayEquals(new KeyCoordinator.KeyInfo[] {
+            new KeyCoordinator.KeyInfo(50, 25, 'A'),
+            new KeyCoordinator.KeyInfo(150, 25, 'B'),
+            new KeyCoordinator.KeyInfo(50, 75, 'C'),
+            new KeyCoordinator.KeyInfo(150, 75, 'D'),
+        }, testMe.getKeys());
+    }
+
     @Test
     public void testGetClosestKey() {
         String rows[] = new String[] { "AB", "CD" };
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype;
+
+import com.gmail.walles.johan.exactype.util.BitmapPool;
+import com.gmail.walles.johan.exactype.util.CacheManager;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KeyboardCachesTest {
+    private static final String[] ROWS = new String[] { "abc", "def" };
+
+    private static KeyboardCaches createCaches() {
+        CacheManager cacheManager = new CacheManager(10_000_000);
+        return new KeyboardCaches(cacheManager, new BitmapPool(cacheManager));
+    }
+
+    @Test
+    public void testHitAfterViewRebuild() {
+        KeyboardCaches testMe = createCaches();
+
+        // The first view, portrait then landscape
+        KeyCoordinator keyCoordinator = testMe.getKeyCoordinator(ROWS);
+        PrerenderedKeyboard portrait = testMe.getPrerendered(1080, 800);
+        PrerenderedKeyboard landscape = testMe.getPrerendered(1920, 500);
+
+        // Rotating back re-creates the view, which then asks the same caches again
+        Assert.assertThat(testMe.getKeyCoordinator(ROWS), Matchers.sameInstance(keyCoordinator));
+        Assert.assertThat(testMe.getPrerendered(1080, 800), Matchers.sameInstance(portrait));
+        Assert.assertThat(testMe.getPrerendered(1920, 500), Matchers.sameInstance(landscape));
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsedSize() {
+        KeyboardCaches testMe = createCaches();
+
+        PrerenderedKeyboard first = testMe.getPrerendered(1080, 800);
+        PrerenderedKeyboard second = testMe.getPrerendered(1920, 500);
+        testMe.getPrerendered(1080, 800);
+        testMe.getPrerendered(800, 600);
+
+        Assert.assertThat(testMe.getAllPrerendered(), Matchers.hasSize(2));
+        Assert.assertThat(testMe.getAllPrerendered().get(1), Matchers.sameInstance(first));
+        Assert.assertThat(testMe.getPrerendered(1920, 500), Matchers.not(second));
+    }
+}
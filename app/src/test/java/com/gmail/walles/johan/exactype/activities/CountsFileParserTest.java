@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+public class CountsFileParserTest {
+    private static Map<String, Integer> parse(CountsFileParser parser, String text)
+        throws IOException
+    {
+        Map<String, Integer> counts = new HashMap<>();
+        parser.parse(new StringReader(text), counts);
+        return counts;
+    }
+
+    @Test
+    public void testParse() throws IOException {
+        CountsFileParser testMe = new CountsFileParser();
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("a", 5);
+        expected.put(":", 7);
+        expected.put("editor action", 12345);
+
+        Assert.assertThat(
+            parse(testMe, "# format 1\na: 5\n:: 7\r\neditor action: 12345"),
+            Matchers.is(expected));
+        Assert.assertThat(testMe.getBadLineCount(), Matchers.is(0));
+    }
+
+    @Test
+    public void testSkipBadLines() throws IOException {
+        CountsFileParser testMe = new CountsFileParser();
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("a", 5);
+        expected.put("b", 6);
+
+        Assert.assertThat(
+            parse(testMe, "a: 5\nx\n: 5\nc:5\nd: five\ne: \nf: 99999999999\nb: 6\n"),
+            Matchers.is(expected));
+        Assert.assertThat(testMe.getBadLineCount(), Matchers.is(6));
+    }
+
+    @Test
+    public void testLargeCountsToListener() throws IOException {
+        CountsFileParser testMe = new CountsFileParser();
+        Map<String, Long> counts = new HashMap<>();
+        testMe.parse(new StringReader("f: 99999999999\n"), counts::put);
+
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("f", 99999999999L);
+        Assert.assertThat(counts, Matchers.is(expected));
+        Assert.assertThat(testMe.getBadLineCount(), Matchers.is(0));
+    }
+
+    @Test
+    public void testLongLine() throws IOException {
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            key.append('k');
+        }
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put(key.toString(), 1);
+        Assert.assertThat(
+            parse(new CountsFileParser(), key + ": 1\n"),
+            Matchers.is(expected));
+    }
+
+    @Test
+    public void testLogGeneration() throws IOException {
+        CountsFileParser testMe = new CountsFileParser();
+        parse(testMe, "# format 1\n# log generation 17\n# some future header\na: 1\n");
+        Assert.assertThat(testMe.getLogGeneration(), Matchers.is(17L));
+        Assert.assertThat(testMe.getBadLineCount(), Matchers.is(0));
+
+        // Reusing the parser shouldn't carry anything over
+        parse(testMe, "a: 1\n");
+        Assert.assertThat(testMe.getLogGeneration(), Matchers.is(0L));
+    }
+
+    @Test(expected = IOException.class)
+    public void testFutureFormat() throws IOException {
+        parse(new CountsFileParser(), "# format 999\na: 1\n");
+    }
+}
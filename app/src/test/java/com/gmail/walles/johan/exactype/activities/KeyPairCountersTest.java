@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+public class KeyPairCountersTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecordAndRead() throws IOException {
+        File file = new File(folder.getRoot(), "stats.pairs");
+        KeyPairCounters testMe = KeyPairCounters.open(file);
+
+        int a = KeySlots.getSlot('a');
+        int b = KeySlots.getSlot('b');
+        Assert.assertThat(testMe.record(a, b, 120), Matchers.is(true));
+        Assert.assertThat(testMe.record(a, b, 130), Matchers.is(true));
+        Assert.assertThat(testMe.record(b, a, 0), Matchers.is(true));
+        Assert.assertThat(
+            testMe.record(b, a, KeyPairCounters.MAX_INTERVAL_MS), Matchers.is(false));
+
+        // Re-opening should keep what we have
+        KeyPairCounters.open(file).record(a, b, 140);
+
+        List<KeyPairCounters.Pair> pairs = KeyPairCounters.read(file);
+        Assert.assertThat(pairs.size(), Matchers.is(2));
+
+        KeyPairCounters.Pair ab = pairs.get(0);
+        Assert.assertThat(ab.fromSlot, Matchers.is(a));
+        Assert.assertThat(ab.toSlot, Matchers.is(b));
+        Assert.assertThat(ab.count, Matchers.is(3));
+
+        KeyPairCounters.Pair ba = pairs.get(1);
+        Assert.assertThat(ba.fromSlot, Matchers.is(b));
+        Assert.assertThat(ba.count, Matchers.is(1));
+    }
+
+    @Test
+    public void testMedian() {
+        int[] buckets = new int[KeyPairCounters.BUCKET_COUNT];
+
+        // Two in the 100-150ms bucket, two in the 150-200ms bucket
+        buckets[2] = 2;
+        buckets[3] = 2;
+        KeyPairCounters.Pair pair = new KeyPairCounters.Pair(0, 1, buckets);
+        Assert.assertThat(pair.getMedianMs(), Matchers.is(150));
+
+        // Just one in the 100-150ms bucket
+        buckets[2] = 1;
+        buckets[3] = 0;
+        pair = new KeyPairCounters.Pair(0, 1, buckets);
+        Assert.assertThat(pair.getMedianMs(), Matchers.is(150));
+    }
+}
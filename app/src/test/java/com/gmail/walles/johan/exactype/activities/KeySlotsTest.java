@@ -0,0 +1,35 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KeySlotsTest {
+    @Test
+    public void testSlots() {
+        Assert.assertThat(KeySlots.getSlot('A'), Matchers.is(KeySlots.getSlot('a')));
+        Assert.assertThat(KeySlots.getName(KeySlots.getSlot('Ö')), Matchers.is("ö"));
+        Assert.assertThat(KeySlots.getSlot('\n'), Matchers.is(KeySlots.NEWLINE));
+        Assert.assertThat(KeySlots.getSlot('⌫'), Matchers.is(KeySlots.BACKSPACE));
+        Assert.assertThat(KeySlots.getSlot('€'), Matchers.is(KeySlots.OTHER));
+        Assert.assertThat(KeySlots.getSlot('@'), Matchers.is(KeySlots.OTHER));
+        Assert.assertThat(KeySlots.getName(KeySlots.getSlot(StatsTracker.Event.BACKSPACE)),
+            Matchers.is("backspace"));
+    }
+}
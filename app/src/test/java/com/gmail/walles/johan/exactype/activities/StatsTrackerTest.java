@@ -26,9 +26,15 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class StatsTrackerTest {
     @Rule
@@ -106,19 +112,276 @@ public class StatsTrackerTest {
         assertFileContents(backingFile, "word", 2);
     }
 
+    @Test
+    public void testCountCharsAndEvents() throws IOException {
+        File backingFile = new File(folder.getRoot(), "stats.txt");
+        StatsTracker testMe = new StatsTracker(backingFile);
+
+        testMe.countCharacter('a');
+        testMe.countCharacter('a');
+        testMe.countCharacter('\u2603');
+        testMe.countEvent(StatsTracker.Event.BACKSPACE);
+        testMe.countCharacter("a");
+        testMe.flush();
+        assertFileContents(backingFile, "a", 3, "\u2603", 1, "backspace", 1);
+
+        testMe.countEvent(StatsTracker.Event.EDITOR_ACTION);
+        testMe.flush();
+        assertFileContents(backingFile,
+            "a", 3, "\u2603", 1, "backspace", 1, "editor action", 1);
+    }
+
+    @Test
+    public void testMappedCounters() throws IOException {
+        File backingFile = new File(folder.getRoot(), "stats.txt");
+        StatsTracker testMe = new StatsTracker(backingFile, true);
+
+        // Mapped counts should be readable without any flushing
+        testMe.countCharacter('a');
+        testMe.countEvent(StatsTracker.Event.NEWLINE);
+        assertFileContents(backingFile, "a", 1, "newline", 1);
+
+        // Counts that can't be mapped should go through the log
+        testMe.countCharacter("word");
+        testMe.flush();
+        assertFileContents(backingFile, "a", 1, "newline", 1, "word", 1);
+
+        StatsTracker restarted = new StatsTracker(backingFile, true);
+        restarted.countCharacter('a');
+        assertFileContents(backingFile, "a", 2, "newline", 1, "word", 1);
+    }
+
+    @Test
+    public void testAddSaturated() {
+        Assert.assertThat(StatsTracker.addSaturated(1, 2), Matchers.is(3));
+        Assert.assertThat(
+            StatsTracker.addSaturated(Integer.MAX_VALUE - 1, 5), Matchers.is(Integer.MAX_VALUE));
+        Assert.assertThat(
+            StatsTracker.addSaturated(1, Long.MAX_VALUE), Matchers.is(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testKeyPairs() throws IOException {
+        File backingFile = new File(folder.getRoot(), "stats.txt");
+        StatsTracker testMe = new StatsTracker(backingFile, true);
+
+        long ms = TimeUnit.MILLISECONDS.toNanos(1);
+        testMe.countCharacter('a', 1000 * ms);
+        testMe.countCharacter('B', 1120 * ms);
+        testMe.countEvent(StatsTracker.Event.BACKSPACE, 1200 * ms);
+
+        // Pauses and editor actions shouldn't count as transitions
+        testMe.countCharacter('c', 9000 * ms);
+        testMe.countEvent(StatsTracker.Event.EDITOR_ACTION, 9100 * ms);
+        testMe.countCharacter('d', 9200 * ms);
+
+        Map<String, Integer> pairCounts = new HashMap<>();
+        for (StatsTracker.KeyPair keyPair : StatsTracker.getKeyPairs(backingFile)) {
+            pairCounts.put(keyPair.from + keyPair.to, keyPair.count);
+        }
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("ab", 1);
+        expected.put("bbackspace", 1);
+        Assert.assertThat(pairCounts, Matchers.is(expected));
+    }
+
+    @Test
+    public void testPeriodCounts() throws IOException {
+        File backingFile = new File(folder.getRoot(), "stats.txt");
+        StatsTracker testMe = new StatsTracker(backingFile, true);
+
+        testMe.countCharacter('a');
+        testMe.countCharacter('A');
+        testMe.countEvent(StatsTracker.Event.BACKSPACE);
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("a", 2);
+        expected.put("backspace", 1);
+        for (StatsTracker.Period period : StatsTracker.Period.values()) {
+            Assert.assertThat(
+                StatsTracker.getCounts(backingFile, period, System.currentTimeMillis()),
+                Matchers.is(expected));
+        }
+    }
+
+    @Test
+    public void testTopWords() throws IOException {
+        File backingFile = new File(folder.getRoot(), "stats.txt");
+        StatsTracker testMe = new StatsTracker(backingFile, true);
+
+        for (char c : "Hi".toCharArray()) {
+            testMe.countCharacter(c);
+        }
+        testMe.countEvent(StatsTracker.Event.NEWLINE);
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("hi", 1);
+        Assert.assertThat(StatsTracker.getTopWords(backingFile), Matchers.is(expected));
+    }
+
+    @Test
+    public void testPrivateInput() throws IOException {
+        File backingFile = new File(folder.getRoot(), "stats.txt");
+        StatsTracker testMe = new StatsTracker(backingFile, true);
+
+        long ms = TimeUnit.MILLISECONDS.toNanos(1);
+        testMe.countCharacter('a', 1000 * ms);
+
+        // Neither the word nor the pair should carry over into the password field
+        testMe.setPrivateInput(true);
+        testMe.countCharacter('b', 1100 * ms);
+        testMe.countCharacter('c', 1200 * ms);
+        testMe.countEvent(StatsTracker.Event.NEWLINE, 1300 * ms);
+
+        testMe.setPrivateInput(false);
+        testMe.countCharacter('d', 2000 * ms);
+        testMe.countCharacter('e', 2100 * ms);
+        testMe.countEvent(StatsTracker.Event.NEWLINE, 2200 * ms);
+
+        Map<String, Integer> expectedWords = new HashMap<>();
+        expectedWords.put("de", 1);
+        Assert.assertThat(StatsTracker.getTopWords(backingFile), Matchers.is(expectedWords));
+
+        Set<String> pairs = new HashSet<>();
+        for (StatsTracker.KeyPair keyPair : StatsTracker.getKeyPairs(backingFile)) {
+            pairs.add(keyPair.from + keyPair.to);
+        }
+        Assert.assertThat(pairs, Matchers.is(new HashSet<>(Arrays.asList("de", "enewline"))));
+
+        // Keys are still counted
+        Assert.assertThat(StatsTracker.getCounts(backingFile).get("b"), Matchers.is(1));
+    }
+
+    @Test
+    public void testCollectStats() throws IOException {
+        File backingFile = new File(folder.getRoot(), "stats.txt");
+        StatsTracker testMe = new StatsTracker(backingFile, true);
+
+        long ms = TimeUnit.MILLISECONDS.toNanos(1);
+        testMe.countCharacter('h', 1000 * ms);
+        testMe.countCharacter('i', 1100 * ms);
+        testMe.countEvent(StatsTracker.Event.NEWLINE, 1200 * ms);
+        testMe.countCharacter("word");
+        testMe.flush();
+
+        long now = System.currentTimeMillis();
+        assertSameStats(testMe.collectStats(now), StatsTracker.readStats(backingFile, now));
+
+        // The snapshot file and the log are only read once, after that we keep track ourselves
+        testMe.countCharacter("word");
+        testMe.countCharacter('a', 2000 * ms);
+        testMe.flush();
+        assertSameStats(testMe.collectStats(now), StatsTracker.readStats(backingFile, now));
+    }
+
+    private static void assertSameStats(StatsTracker.Stats actual, StatsTracker.Stats expected) {
+        Assert.assertThat(actual.counts, Matchers.is(expected.counts));
+        Assert.assertThat(actual.periodCounts, Matchers.is(expected.periodCounts));
+        Assert.assertThat(actual.topWords, Matchers.is(expected.topWords));
+        Assert.assertThat(getPairCounts(actual), Matchers.is(getPairCounts(expected)));
+    }
+
+    private static Map<String, Integer> getPairCounts(StatsTracker.Stats stats) {
+        Map<String, Integer> pairCounts = new HashMap<>();
+        for (StatsTracker.KeyPair keyPair : stats.keyPairs) {
+            pairCounts.put(keyPair.from + keyPair.to, keyPair.count);
+        }
+        return pairCounts;
+    }
+
+    @Test
+    public void testRequestFlush() throws IOException, InterruptedException {
+        File backingFile = new File(folder.getRoot(), "stats.txt");
+        StatsTracker testMe = new StatsTracker(backingFile);
+
+        testMe.countCharacter('a');
+        testMe.requestFlush();
+
+        // The flush happens in the background
+        long deadline = System.currentTimeMillis() + 5000;
+        while (StatsTracker.getCounts(backingFile).isEmpty()
+            && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertFileContents(backingFile, "a", 1);
+    }
+
     @Test
     public void testPersistence() throws IOException {
-        File backingFile = new File(folder.getRoot(), "initial");
-        StatsTracker initial = new StatsTracker(backingFile);
+        // The counts are spread over more than one file, move them all
+        File initialDirectory = folder.newFolder("initial");
+        StatsTracker initial = new StatsTracker(new File(initialDirectory, "stats.txt"));
         initial.countCharacter("c");
         initial.countCharacter("c");
         initial.countCharacter("c");
         initial.flush();
 
-        File backingFileCopy = new File(folder.getRoot(), "secondary");
-        Assert.assertThat(backingFile.renameTo(backingFileCopy), Matchers.is(true));
+        File secondaryDirectory = new File(folder.getRoot(), "secondary");
+        Assert.assertThat(initialDirectory.renameTo(secondaryDirectory), Matchers.is(true));
+
+        assertFileContents(new File(secondaryDirectory, "stats.txt"), "c", 3);
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        File backingFile = new File(folder.getRoot(), "stats.txt");
+        StatsTracker testMe = new StatsTracker(backingFile);
+
+        testMe.countCharacter("a");
+        testMe.flush();
+        testMe.compact();
+        assertFileContents(backingFile, "a", 1);
+
+        testMe.countCharacter("a");
+        testMe.countCharacter("b");
+        testMe.flush();
+        assertFileContents(backingFile, "a", 2, "b", 1);
+    }
+
+    @Test
+    public void testInterruptedCompaction() throws IOException {
+        File backingFile = new File(folder.getRoot(), "stats.txt");
+        File logFile = new File(folder.getRoot(), "stats.log");
+        StatsTracker testMe = new StatsTracker(backingFile);
+
+        testMe.countCharacter("a");
+        testMe.flush();
+        byte[] logBeforeCompaction = Files.readAllBytes(logFile.toPath());
+
+        testMe.compact();
+
+        // Pretend we died after writing the snapshot but before resetting the log
+        Files.write(logFile.toPath(), logBeforeCompaction);
+        assertFileContents(backingFile, "a", 1);
+
+        // The stale log should be replaced, not appended to
+        StatsTracker restarted = new StatsTracker(backingFile);
+        restarted.countCharacter("a");
+        restarted.flush();
+        assertFileContents(backingFile, "a", 2);
+    }
+
+    @Test
+    public void testTornLogRecord() throws IOException {
+        File backingFile = new File(folder.getRoot(), "stats.txt");
+        File logFile = new File(folder.getRoot(), "stats.log");
+        StatsTracker testMe = new StatsTracker(backingFile);
+
+        testMe.countCharacter("a");
+        testMe.flush();
+
+        // Half a record at the end of the log
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write(new byte[] {0, 0, 0, 20, 1, 2, 3});
+        }
+        assertFileContents(backingFile, "a", 1);
 
-        assertFileContents(backingFileCopy, "c", 3);
+        // A new tracker should cut off the broken tail before appending
+        StatsTracker restarted = new StatsTracker(backingFile);
+        restarted.countCharacter("b");
+        restarted.flush();
+        assertFileContents(backingFile, "a", 1, "b", 1);
     }
 
     @Test
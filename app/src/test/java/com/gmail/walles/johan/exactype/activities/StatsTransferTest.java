@@ -0,0 +1,164 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import com.gmail.walles.johan.exactype.util.LoggingUtils;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class StatsTransferTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void beforeClass() {
+        LoggingUtils.setUpLogging();
+    }
+
+    private static String export(File backingFile) throws IOException {
+        StringWriter exported = new StringWriter();
+        StatsTransfer.exportStats(backingFile, exported);
+        return exported.toString();
+    }
+
+    private static Map<String, Integer> getPairCounts(StatsTracker.Stats stats) {
+        Map<String, Integer> pairCounts = new HashMap<>();
+        for (StatsTracker.KeyPair keyPair : stats.keyPairs) {
+            pairCounts.put(keyPair.from + " " + keyPair.to, keyPair.count);
+        }
+        return pairCounts;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File sourceFile = new File(folder.newFolder("source"), "stats.txt");
+        StatsTracker source = new StatsTracker(sourceFile, true);
+
+        // Some counts in the snapshot, some in the log and some in the mapped counters
+        source.countCharacter("word");
+        source.flush();
+        source.compact();
+        source.countCharacter("word");
+        source.flush();
+
+        long ms = TimeUnit.MILLISECONDS.toNanos(1);
+        source.countCharacter('h', 1000 * ms);
+        source.countCharacter('i', 1120 * ms);
+        source.countEvent(StatsTracker.Event.EDITOR_ACTION, 1300 * ms);
+        source.countCharacter(' ', 2000 * ms);
+        source.countEvent(StatsTracker.Event.BACKSPACE, 2100 * ms);
+        source.flush();
+
+        File targetFile = new File(folder.newFolder("target"), "stats.txt");
+        StatsTracker target = new StatsTracker(targetFile, true);
+        StatsTransfer.importStats(target, new StringReader(export(sourceFile)));
+
+        long now = System.currentTimeMillis();
+        StatsTracker.Stats expected = StatsTracker.readStats(sourceFile, now);
+        StatsTracker.Stats actual = StatsTracker.readStats(targetFile, now);
+        Assert.assertThat(actual.counts, Matchers.is(expected.counts));
+        Assert.assertThat(actual.periodCounts, Matchers.is(expected.periodCounts));
+        Assert.assertThat(actual.topWords, Matchers.is(expected.topWords));
+        Assert.assertThat(getPairCounts(actual), Matchers.is(getPairCounts(expected)));
+
+        Assert.assertThat(actual.counts.get("word"), Matchers.is(2));
+        Assert.assertThat(getPairCounts(actual).get("  backspace"), Matchers.is(1));
+    }
+
+    @Test
+    public void testImportMerges() throws IOException {
+        File backingFile = new File(folder.getRoot(), "stats.txt");
+        StatsTracker testMe = new StatsTracker(backingFile, true);
+        for (char c : "Hi".toCharArray()) {
+            testMe.countCharacter(c);
+        }
+        testMe.countEvent(StatsTracker.Event.NEWLINE);
+        testMe.flush();
+
+        // Into the same tracker that's counting, like when the keyboard is running
+        StatsTransfer.importStats(testMe, new StringReader(export(backingFile)));
+
+        Map<String, Integer> expectedCounts = new HashMap<>();
+        expectedCounts.put("H", 2);
+        expectedCounts.put("i", 2);
+        expectedCounts.put("newline", 2);
+        Assert.assertThat(StatsTracker.getCounts(backingFile), Matchers.is(expectedCounts));
+
+        Map<String, Integer> expectedWords = new HashMap<>();
+        expectedWords.put("hi", 2);
+        Assert.assertThat(StatsTracker.getTopWords(backingFile), Matchers.is(expectedWords));
+    }
+
+    @Test
+    public void testSkipUnknown() throws IOException {
+        File backingFile = new File(folder.getRoot(), "stats.txt");
+        String export = "# format 1\n"
+            + "key a: 3\n"
+            + "hour 12 nonexistent: 5\n"
+            + "pair 17 a → b: 2\n"
+            + "something else: 4\n";
+
+        StatsTracker testMe = new StatsTracker(backingFile, true);
+        Assert.assertThat(
+            StatsTransfer.importStats(testMe, new StringReader(export)), Matchers.is(1));
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("a", 3);
+        Assert.assertThat(StatsTracker.getCounts(backingFile), Matchers.is(expected));
+    }
+
+    @Test
+    public void testImportHugeCounts() throws IOException {
+        File backingFile = new File(folder.getRoot(), "stats.txt");
+        String export = "# format 1\n"
+            + "key a: 5000000000\n"
+            + "key a: 7\n"
+            + "key b: 2147483647\n"
+            + "word hello: 3000000000\n";
+
+        StatsTracker testMe = new StatsTracker(backingFile, true);
+        Assert.assertThat(
+            StatsTransfer.importStats(testMe, new StringReader(export)), Matchers.is(4));
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("a", Integer.MAX_VALUE);
+        expected.put("b", Integer.MAX_VALUE);
+        Assert.assertThat(StatsTracker.getCounts(backingFile), Matchers.is(expected));
+        Assert.assertThat(
+            StatsTracker.getTopWords(backingFile).get("hello"), Matchers.is(Integer.MAX_VALUE));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNothingToImport() throws IOException {
+        File backingFile = new File(folder.getRoot(), "stats.txt");
+        StatsTransfer.importStats(
+            new StatsTracker(backingFile, true), new StringReader("hello\n"));
+    }
+}
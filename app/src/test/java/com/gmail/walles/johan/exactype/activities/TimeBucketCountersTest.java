@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+public class TimeBucketCountersTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static int getPeriodId(int level, long timeMillis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(timeMillis);
+        return TimeBucketCounters.getPeriodId(level, calendar);
+    }
+
+    @Test
+    public void testRollups() throws IOException {
+        File file = new File(folder.getRoot(), "stats.buckets");
+        TimeBucketCounters testMe = TimeBucketCounters.open(file);
+
+        int a = KeySlots.getSlot('a');
+        long now = System.currentTimeMillis();
+        long anHourAgo = now - TimeUnit.HOURS.toMillis(1);
+        testMe.increment(a, anHourAgo);
+        testMe.increment(a, now);
+        testMe.increment(a, now);
+
+        int hour = getPeriodId(TimeBucketCounters.HOURS, now);
+        Assert.assertThat(
+            TimeBucketCounters.sum(file, TimeBucketCounters.HOURS, hour, hour)[a],
+            Matchers.is(2));
+        Assert.assertThat(
+            TimeBucketCounters.sum(file, TimeBucketCounters.HOURS, hour - 1, hour)[a],
+            Matchers.is(3));
+
+        int day = getPeriodId(TimeBucketCounters.DAYS, now);
+        Assert.assertThat(
+            TimeBucketCounters.sum(file, TimeBucketCounters.DAYS, day - 1, day)[a],
+            Matchers.is(3));
+
+        // Counts should survive re-opening
+        TimeBucketCounters.open(file).increment(a, now);
+        int month = getPeriodId(TimeBucketCounters.MONTHS, now);
+        Assert.assertThat(
+            TimeBucketCounters.sum(file, TimeBucketCounters.MONTHS, month - 1, month)[a],
+            Matchers.is(4));
+    }
+
+    @Test
+    public void testBucketReuse() throws IOException {
+        File file = new File(folder.getRoot(), "stats.buckets");
+        TimeBucketCounters testMe = TimeBucketCounters.open(file);
+
+        int a = KeySlots.getSlot('a');
+        long now = System.currentTimeMillis();
+        testMe.increment(a, now);
+
+        // Ten days later the hour bucket has been reused, but the day bucket is still there
+        long later = now + TimeUnit.DAYS.toMillis(10);
+        testMe.increment(a, later);
+
+        int hour = getPeriodId(TimeBucketCounters.HOURS, now);
+        Assert.assertThat(
+            TimeBucketCounters.sum(file, TimeBucketCounters.HOURS, hour, hour)[a],
+            Matchers.is(0));
+
+        int day = getPeriodId(TimeBucketCounters.DAYS, now);
+        Assert.assertThat(
+            TimeBucketCounters.sum(file, TimeBucketCounters.DAYS, day, day + 10)[a],
+            Matchers.is(2));
+    }
+}
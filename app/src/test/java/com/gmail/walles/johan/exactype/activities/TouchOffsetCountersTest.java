@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class TouchOffsetCountersTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static int getBinCount(TouchOffsetCounters.KeyOffsets keyOffsets, int row, int column) {
+        return keyOffsets.histogram[row * TouchOffsetCounters.BINS_PER_AXIS + column];
+    }
+
+    @Test
+    public void testRecordAndRead() throws IOException {
+        File file = new File(folder.getRoot(), "stats.touches");
+        TouchOffsetCounters testMe = TouchOffsetCounters.open(file);
+
+        int a = KeySlots.getSlot('a');
+        testMe.record(a, 0f, 0f);
+        testMe.record(a, 1f, -2f);
+
+        // Way off, should end up in the bottom right corner
+        TouchOffsetCounters.open(file).record(a, 20f, 20f);
+
+        TouchOffsetCounters.KeyOffsets[] keyOffsets = TouchOffsetCounters.read(file);
+        Assert.assertThat(keyOffsets[KeySlots.getSlot('b')], Matchers.nullValue());
+
+        TouchOffsetCounters.KeyOffsets aOffsets = keyOffsets[a];
+        Assert.assertThat(aOffsets.count, Matchers.is(3L));
+        Assert.assertThat(aOffsets.meanDxMm, Matchers.is(7f));
+        Assert.assertThat(aOffsets.meanDyMm, Matchers.is(6f));
+
+        int center = TouchOffsetCounters.BINS_PER_AXIS / 2;
+        int last = TouchOffsetCounters.BINS_PER_AXIS - 1;
+        Assert.assertThat(getBinCount(aOffsets, center, center), Matchers.is(1));
+        Assert.assertThat(getBinCount(aOffsets, center - 2, center + 1), Matchers.is(1));
+        Assert.assertThat(getBinCount(aOffsets, last, last), Matchers.is(1));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.activities;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class WordCountersTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void type(WordCounters wordCounters, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '⌫') {
+                wordCounters.onBackspace();
+            } else {
+                wordCounters.onCharacter(c);
+            }
+        }
+    }
+
+    @Test
+    public void testSegmentation() throws IOException {
+        File file = new File(folder.getRoot(), "stats.words");
+        WordCounters testMe = WordCounters.open(file);
+
+        type(testMe, "Hello, 'world' don't hellp⌫⌫lo ");
+
+        // Erasing into an already counted word makes the next word unknown
+        type(testMe, "x ⌫⌫ab ");
+
+        // Unfinished words aren't counted
+        type(testMe, "hell");
+        testMe.discardWord();
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("hello", 2);
+        expected.put("world", 1);
+        expected.put("don't", 1);
+        expected.put("x", 1);
+        Assert.assertThat(WordCounters.readTopWords(file), Matchers.is(expected));
+    }
+
+    @Test
+    public void testTopWordsStayBounded() throws IOException {
+        File file = new File(folder.getRoot(), "stats.words");
+        WordCounters testMe = WordCounters.open(file);
+
+        for (int i = 0; i < 10; i++) {
+            type(testMe, "common ");
+        }
+
+        // Lots of different words, more than we have room for
+        for (int i = 0; i < 10 * WordCounters.TOP_WORD_COUNT; i++) {
+            type(testMe, "w" + Integer.toString(i, 26).replaceAll("[0-9]", "") + "q ");
+        }
+
+        Map<String, Integer> topWords = WordCounters.readTopWords(file);
+        Assert.assertThat(topWords.size(), Matchers.lessThanOrEqualTo(WordCounters.TOP_WORD_COUNT));
+        Assert.assertThat(topWords.get("common"), Matchers.greaterThanOrEqualTo(10));
+
+        // Counts should survive re-opening
+        type(WordCounters.open(file), "common ");
+        Assert.assertThat(
+            WordCounters.readTopWords(file).get("common"), Matchers.greaterThanOrEqualTo(11));
+    }
+}
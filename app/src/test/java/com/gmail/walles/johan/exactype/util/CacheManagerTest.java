@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CacheManagerTest {
+    private static class TestEntry implements CacheManager.Entry {
+        long sizeBytes;
+        int dropCount;
+
+        TestEntry(long sizeBytes) {
+            this.sizeBytes = sizeBytes;
+        }
+
+        @Override
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+
+        @Override
+        public void drop() {
+            sizeBytes = 0;
+            dropCount++;
+        }
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        CacheManager testMe = new CacheManager(100);
+        TestEntry first = new TestEntry(40);
+        TestEntry second = new TestEntry(40);
+        TestEntry third = new TestEntry(40);
+
+        testMe.touch(first);
+        testMe.touch(second);
+        testMe.touch(first);
+        testMe.touch(third);
+
+        Assert.assertThat(first.dropCount, Matchers.is(0));
+        Assert.assertThat(second.dropCount, Matchers.is(1));
+        Assert.assertThat(third.dropCount, Matchers.is(0));
+        Assert.assertThat(testMe.getUsageBytes(), Matchers.is(80L));
+    }
+
+    @Test
+    public void testNeverDropTouched() {
+        CacheManager testMe = new CacheManager(100);
+        TestEntry huge = new TestEntry(1000);
+
+        testMe.touch(huge);
+
+        Assert.assertThat(huge.dropCount, Matchers.is(0));
+        Assert.assertThat(testMe.getUsageBytes(), Matchers.is(1000L));
+    }
+
+    @Test
+    public void testSizeChange() {
+        CacheManager testMe = new CacheManager(100);
+        TestEntry entry = new TestEntry(10);
+        testMe.touch(entry);
+
+        entry.sizeBytes = 30;
+        testMe.touch(entry);
+        Assert.assertThat(testMe.getUsageBytes(), Matchers.is(30L));
+
+        testMe.remove(entry);
+        Assert.assertThat(testMe.getUsageBytes(), Matchers.is(0L));
+    }
+
+    @Test
+    public void testTrim() {
+        CacheManager testMe = new CacheManager(100);
+        TestEntry first = new TestEntry(40);
+        TestEntry second = new TestEntry(40);
+        testMe.touch(first);
+        testMe.touch(second);
+
+        testMe.trimToSize(50);
+        Assert.assertThat(first.dropCount, Matchers.is(1));
+        Assert.assertThat(second.dropCount, Matchers.is(0));
+
+        testMe.trimToSize(0);
+        Assert.assertThat(second.dropCount, Matchers.is(1));
+        Assert.assertThat(testMe.getUsageBytes(), Matchers.is(0L));
+    }
+}
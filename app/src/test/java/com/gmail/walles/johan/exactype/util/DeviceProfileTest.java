@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeviceProfileTest {
+    @Test
+    public void testIsLowEndHardware() {
+        Assert.assertTrue(DeviceProfile.isLowEndHardware(true, 8));
+        Assert.assertTrue(DeviceProfile.isLowEndHardware(false, 2));
+        Assert.assertFalse(DeviceProfile.isLowEndHardware(false, 4));
+    }
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void testIsDroppingFrames() {
+        // Too few frames to tell
+        Assert.assertFalse(DeviceProfile.isDroppingFrames(false, 10, 10));
+        Assert.assertTrue(DeviceProfile.isDroppingFrames(true, 10, 0));
+
+        Assert.assertFalse(DeviceProfile.isDroppingFrames(false, 1000, 200));
+        Assert.assertTrue(DeviceProfile.isDroppingFrames(false, 1000, 201));
+    }
+
+    @Test
+    public void testRecoverFromDroppingFrames() {
+        // Not good enough to recover yet
+        Assert.assertTrue(DeviceProfile.isDroppingFrames(true, 1000, 100));
+
+        Assert.assertFalse(DeviceProfile.isDroppingFrames(true, 1000, 50));
+    }
+
+    @Test
+    public void testJitterAt60HzIsNotDroppingFrames() {
+        FrameTimeHistogram frameIntervals = new FrameTimeHistogram(
+            "frame interval", FrameTimeTracker.getDroppedFrameBudgetNanos(60));
+
+        // Every other vsync timestamp is a few milliseconds late
+        for (int i = 0; i < 1000; i++) {
+            frameIntervals.record(i % 2 == 0 ? 13 * MS : 20 * MS);
+        }
+
+        Assert.assertFalse(DeviceProfile.isDroppingFrames(
+            false, frameIntervals.getCount(), frameIntervals.getOverBudgetCount()));
+    }
+}
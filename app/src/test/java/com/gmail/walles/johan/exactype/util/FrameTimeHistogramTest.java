@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class FrameTimeHistogramTest {
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void testBuckets() {
+        FrameTimeHistogram testMe = new FrameTimeHistogram("test");
+        testMe.record(MS);
+        testMe.record(5 * MS);
+        testMe.record(7 * MS);
+        testMe.record(500 * MS);
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("test 0-2ms", 1);
+        expected.put("test 4-8ms", 2);
+        expected.put("test 100+ms", 1);
+        expected.put("test over budget", 1);
+
+        Map<String, Integer> actual = new HashMap<>();
+        testMe.drainInto(actual);
+        Assert.assertThat(actual, Matchers.is(expected));
+    }
+
+    @Test
+    public void testOverBudget() {
+        FrameTimeHistogram testMe = new FrameTimeHistogram("test", 10 * MS);
+        testMe.record(10 * MS);
+        Assert.assertThat(testMe.getOverBudgetCount(), Matchers.is(0));
+
+        testMe.record(10 * MS + 1);
+        Assert.assertThat(testMe.getOverBudgetCount(), Matchers.is(1));
+    }
+
+    @Test
+    public void testDrainResets() {
+        FrameTimeHistogram testMe = new FrameTimeHistogram("test");
+        testMe.record(20 * MS);
+
+        Map<String, Integer> counts = new HashMap<>();
+        testMe.drainInto(counts);
+        testMe.drainInto(counts);
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("test 16-24ms", 1);
+        expected.put("test over budget", 1);
+        Assert.assertThat(counts, Matchers.is(expected));
+        Assert.assertThat(testMe.getOverBudgetCount(), Matchers.is(0));
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class FrameTimeTrackerTest {
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void testHistogramsReusedByName() {
+        FrameTimeTracker testMe = new FrameTimeTracker();
+
+        // Like a view being re-created after a configuration change
+        FrameTimeHistogram first = testMe.getHistogram("keyboard draw");
+        first.record(MS);
+        FrameTimeHistogram second = testMe.getHistogram("keyboard draw");
+        Assert.assertThat(second, Matchers.sameInstance(first));
+        second.record(MS);
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("keyboard draw 0-2ms", 2);
+        Assert.assertThat(testMe.drain(), Matchers.is(expected));
+    }
+
+    @Test
+    public void testDroppedFrameBudget() {
+        Assert.assertThat(FrameTimeTracker.getDroppedFrameBudgetNanos(60), Matchers.is(25 * MS));
+        Assert.assertThat(FrameTimeTracker.getDroppedFrameBudgetNanos(50), Matchers.is(30 * MS));
+
+        // Unknown refresh rate, assume 60Hz
+        Assert.assertThat(FrameTimeTracker.getDroppedFrameBudgetNanos(0), Matchers.is(25 * MS));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IntRingBufferTest {
+    @Test
+    public void testOfferAndDrain() {
+        IntRingBuffer testMe = new IntRingBuffer(4);
+        Assert.assertTrue(testMe.offer(1));
+        Assert.assertTrue(testMe.offer(2));
+        Assert.assertThat(testMe.size(), Matchers.is(2));
+
+        int[] target = new int[4];
+        Assert.assertThat(testMe.drainTo(target), Matchers.is(2));
+        Assert.assertThat(target[0], Matchers.is(1));
+        Assert.assertThat(target[1], Matchers.is(2));
+        Assert.assertThat(testMe.size(), Matchers.is(0));
+    }
+
+    @Test
+    public void testFull() {
+        IntRingBuffer testMe = new IntRingBuffer(2);
+        Assert.assertTrue(testMe.offer(1));
+        Assert.assertTrue(testMe.offer(2));
+        Assert.assertFalse(testMe.offer(3));
+
+        int[] target = new int[1];
+        Assert.assertThat(testMe.drainTo(target), Matchers.is(1));
+        Assert.assertThat(target[0], Matchers.is(1));
+
+        // Draining made room for one more
+        Assert.assertTrue(testMe.offer(3));
+    }
+
+    @Test
+    public void testWrapAround() {
+        IntRingBuffer testMe = new IntRingBuffer(4);
+        int[] target = new int[4];
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(testMe.offer(i));
+            Assert.assertTrue(testMe.offer(i + 100));
+
+            Assert.assertThat(testMe.drainTo(target), Matchers.is(2));
+            Assert.assertThat(target[0], Matchers.is(i));
+            Assert.assertThat(target[1], Matchers.is(i + 100));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadCapacity() {
+        new IntRingBuffer(3);
+    }
+}
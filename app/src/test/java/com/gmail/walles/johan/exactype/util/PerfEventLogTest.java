@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PerfEventLogTest {
+    private static List<String> drain(PerfEventLog testMe) {
+        List<String> formatted = new ArrayList<>();
+        testMe.drainTo((event, values) -> formatted.add(event.format(values)));
+        return formatted;
+    }
+
+    @Test
+    public void testRecordAndDrain() {
+        PerfEventLog testMe = new PerfEventLog(4);
+        testMe.record(PerfEvent.COMMIT_CHAR, 1.5f);
+        testMe.record(PerfEvent.TOUCH, 2f, 3f);
+        testMe.record(PerfEvent.TRIM_MEMORY, 4f, 5f, 6f);
+        Assert.assertThat(testMe.size(), Matchers.is(3));
+
+        Assert.assertThat(drain(testMe), Matchers.is(Arrays.asList(
+            "Name: Perf  Commit char ms: 1.5",
+            "Name: Touch  Horizontal distance (mm): 2.0  Vertical distance (mm): 3.0",
+            "Name: Perf  Trim memory level: 4.0  Cache kB before trim: 5.0"
+                + "  Cache kB after trim: 6.0")));
+        Assert.assertThat(testMe.size(), Matchers.is(0));
+    }
+
+    @Test
+    public void testFullReplacesOldest() {
+        PerfEventLog testMe = new PerfEventLog(2);
+        testMe.record(PerfEvent.COMMIT_CHAR, 1f);
+        testMe.record(PerfEvent.COMMIT_CHAR, 2f);
+        testMe.record(PerfEvent.COMMIT_CHAR, 3f);
+
+        List<String> drained = new ArrayList<>();
+        int dropped = testMe.drainTo((event, values) -> drained.add(event.format(values)));
+        Assert.assertThat(dropped, Matchers.is(1));
+        Assert.assertThat(drained, Matchers.is(Arrays.asList(
+            "Name: Perf  Commit char ms: 2.0",
+            "Name: Perf  Commit char ms: 3.0")));
+
+        // Nothing more dropped since last time
+        testMe.record(PerfEvent.COMMIT_CHAR, 4f);
+        Assert.assertThat(testMe.drainTo((event, values) -> { }), Matchers.is(0));
+    }
+
+    @Test
+    public void testWrapAround() {
+        PerfEventLog testMe = new PerfEventLog(4);
+        for (int i = 0; i < 10; i++) {
+            testMe.record(PerfEvent.HORIZONTAL_SWIPE, i);
+            testMe.record(PerfEvent.VERTICAL_SWIPE, i + 100);
+
+            Assert.assertThat(drain(testMe), Matchers.is(Arrays.asList(
+                "Name: Horizontal Swipe  Distance (mm): " + (float)i,
+                "Name: Vertical Swipe  Distance (mm): " + (float)(i + 100))));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityNotPowerOfTwo() {
+        new PerfEventLog(3);
+    }
+}
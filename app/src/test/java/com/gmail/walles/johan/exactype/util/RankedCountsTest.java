@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 Johan Walles <johan.walles@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gmail.walles.johan.exactype.util;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class RankedCountsTest {
+    @Test
+    public void testRanking() {
+        RankedCounts testMe = new RankedCounts();
+        testMe.set("a", 1);
+        testMe.set("b", 5);
+        testMe.set("c", 3);
+        testMe.set("d", 0);
+
+        Assert.assertThat(testMe.size(), Matchers.is(3));
+        Assert.assertThat(testMe.getKey(0), Matchers.is("b"));
+        Assert.assertThat(testMe.getKey(1), Matchers.is("c"));
+        Assert.assertThat(testMe.getKey(2), Matchers.is("a"));
+        Assert.assertThat(testMe.getTotal(), Matchers.is(9L));
+        Assert.assertThat(testMe.getCumulativeCount(1), Matchers.is(8L));
+        Assert.assertThat(testMe.getPercentile(0), Matchers.is(55));
+
+        testMe.set("a", 6);
+        Assert.assertThat(testMe.getKey(0), Matchers.is("a"));
+        Assert.assertThat(testMe.getCount("a"), Matchers.is(6));
+
+        testMe.remove("b");
+        Assert.assertThat(testMe.size(), Matchers.is(2));
+        Assert.assertThat(testMe.getKey(1), Matchers.is("c"));
+        Assert.assertThat(testMe.getTotal(), Matchers.is(9L));
+        Assert.assertThat(testMe.getCount("b"), Matchers.is(0));
+    }
+
+    @Test
+    public void testRandomUpdates() {
+        Random random = new Random(42);
+        RankedCounts testMe = new RankedCounts();
+        Map<String, Integer> expected = new HashMap<>();
+
+        for (int i = 0; i < 2000; i++) {
+            String key = "k" + random.nextInt(100);
+            if (random.nextInt(10) == 0) {
+                testMe.remove(key);
+                expected.remove(key);
+            } else {
+                int count = random.nextInt(50) + 1;
+                testMe.set(key, count);
+                expected.put(key, count);
+            }
+        }
+
+        List<Integer> expectedCounts = new ArrayList<>(expected.values());
+        Collections.sort(expectedCounts, Collections.reverseOrder());
+
+        Assert.assertThat(testMe.size(), Matchers.is(expectedCounts.size()));
+        long cumulative = 0;
+        for (int rank = 0; rank < testMe.size(); rank++) {
+            Assert.assertThat(testMe.getCount(rank), Matchers.is(expectedCounts.get(rank)));
+            Assert.assertThat(
+                expected.get(testMe.getKey(rank)), Matchers.is(testMe.getCount(rank)));
+
+            cumulative += expectedCounts.get(rank);
+            Assert.assertThat(testMe.getCumulativeCount(rank), Matchers.is(cumulative));
+        }
+        Assert.assertThat(testMe.getTotal(), Matchers.is(cumulative));
+    }
+}